@@ -0,0 +1,53 @@
+import java.io.OutputStream;
+import java.util.List;
+
+import minipl.jmh.Pipeline;
+
+// Connects the benchmarks in minipl.jmh to the compiler, see Pipeline
+public class JmhPipeline implements Pipeline {
+    // What the programs print is thrown away, but still formatted and buffered
+    private final OutputSink out =
+        OutputSink.toStream(OutputStream.nullOutputStream(), OutputSink.FlushPolicy.ON_EXIT, 0);
+    private final InputSource in = InputSource.empty();
+    private final CompilerMain.Options options = new CompilerMain.Options();
+
+    // The programs don't read, the PartialEvaluator would leave nothing for
+    // the interpreter to run
+    public JmhPipeline() {
+        options.precompute = false;
+    }
+
+    @Override
+    public Object scan(String source) {
+        return new Lexer(source, diagnostics()).scanFileForTokens();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object parse(Object tokens) {
+        return new Parser((List<Token>)tokens, diagnostics()).parseTokens();
+    }
+
+    @Override
+    public Object compile(String source) {
+        Program program = CompilerMain.compile(source, options, diagnostics());
+        if(program == null) throw new IllegalStateException("The benchmark program has errors");
+        return program;
+    }
+
+    @Override
+    public void interpret(Object program) {
+        Diagnostics diagnostics = diagnostics();
+        new Interpreter(out, in, Fuel.unlimited(), diagnostics).interpretExpression((Program)program);
+        if(diagnostics.hadRuntimeError) throw new IllegalStateException("The benchmark program failed");
+    }
+
+    @Override
+    public void run(String source) {
+        interpret(compile(source));
+    }
+
+    private static Diagnostics diagnostics() {
+        return new Diagnostics(System.err);
+    }
+}
@@ -0,0 +1,31 @@
+package minipl.jmh;
+
+// The stages of the compiler, as seen by the benchmarks. The compiler is
+// written in the default package, which code in a named package (and JMH
+// needs one) can't refer to. So the benchmarks only know this interface, and
+// the default package class JmhPipeline implements it by calling the compiler.
+// The values are passed around as Objects for the same reason.
+public interface Pipeline {
+    // Lexer.scanFileForTokens(), returns the token list
+    Object scan(String source);
+
+    // Parser.parseTokens() on a token list from scan(), returns the statements
+    Object parse(Object tokens);
+
+    // The whole front end including the Optimizer, returns the checked program
+    Object compile(String source);
+
+    // Interpreter.interpretExpression() on a program from compile()
+    void interpret(Object program);
+
+    // Everything CompilerMain does for a script: compile() and interpret()
+    void run(String source);
+
+    static Pipeline load() {
+        try {
+            return (Pipeline)Class.forName("JmhPipeline").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The compiler classes are missing", e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package minipl.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The stages of the compiler one at a time, and all of them together, on
+// generated programs of different shapes. The input of every stage is made
+// once in setup(), so only the stage itself is measured. Run with -prof gc to
+// see the allocation rates.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"deep-expressions", "long-statements", "many-variables", "heavy-printing"})
+    String shape;
+
+    @Param({"1000"})
+    int statements;
+
+    private Pipeline pipeline;
+    private String source;
+    private Object tokens;
+    private Object program;
+
+    @Setup
+    public void setup() {
+        pipeline = Pipeline.load();
+        source = Programs.generate(shape, statements);
+        tokens = pipeline.scan(source);
+        program = pipeline.compile(source);
+    }
+
+    @Benchmark
+    public Object lexer() {
+        return pipeline.scan(source);
+    }
+
+    @Benchmark
+    public Object parser() {
+        return pipeline.parse(tokens);
+    }
+
+    @Benchmark
+    public void interpreter() {
+        pipeline.interpret(program);
+    }
+
+    @Benchmark
+    public void endToEnd() {
+        pipeline.run(source);
+    }
+}
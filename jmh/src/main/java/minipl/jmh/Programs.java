@@ -0,0 +1,91 @@
+package minipl.jmh;
+
+// Generates the MiniPL programs the benchmarks run. Every program starts with
+// a variable that is assigned after its declaration, and everything else is
+// computed from it, so the Optimizer can't fold the programs away.
+public final class Programs {
+    private Programs() {}
+
+    static String generate(String shape, int statements) {
+        switch(shape) {
+            case "deep-expressions": return deepExpressions(statements);
+            case "long-statements": return longStatements(statements);
+            case "many-variables": return manyVariables(statements);
+            case "heavy-printing": return heavyPrinting(statements);
+        }
+        throw new IllegalArgumentException("Unknown program shape: " + shape);
+    }
+
+    private static StringBuilder start() {
+        return new StringBuilder("var seed : int := 7;\nseed := seed * 3;\n");
+    }
+
+    // Assignments of expressions nested 24 levels deep
+    static String deepExpressions(int statements) {
+        StringBuilder source = start();
+        source.append("var x : int := seed;\n");
+        for(int n = 0; n < statements; n++) {
+            source.append("x := ").append(nested(24)).append(";\n");
+        }
+        source.append("print x;\n");
+        return source.toString();
+    }
+
+    private static String nested(int depth) {
+        if(depth == 0) return "x";
+        String operator = " " + "+*-/".charAt(depth % 4) + " ";
+        return "(" + nested(depth - 1) + operator + depth + ")";
+    }
+
+    // Many short statements on a few variables, like the loops in
+    // doc/test_full_language.txt written out
+    static String longStatements(int statements) {
+        StringBuilder source = start();
+        source.append("var v : int := seed;\n");
+        source.append("var i : int := 0;\n");
+        source.append("var big : bool;\n");
+        for(int n = 0; n < statements; n++) {
+            source.append("i := i + 1;\n");
+            source.append("v := v * i + (i - 1) / 2 - -3;\n");
+            source.append("big := v < 0 = (i > 100);\n");
+        }
+        source.append("print v;\n");
+        return source.toString();
+    }
+
+    // Every statement declares a new variable
+    static String manyVariables(int statements) {
+        StringBuilder source = start();
+        source.append("var ").append(name(0)).append(" : int := seed;\n");
+        for(int n = 1; n < statements; n++) {
+            source.append("var ").append(name(n)).append(" : int := ").append(name(n - 1))
+                .append(" * 3 + ").append(name(n / 2)).append(";\n");
+        }
+        source.append("print ").append(name(statements - 1)).append(";\n");
+        return source.toString();
+    }
+
+    // Identifiers can only have letters, so n is written in base 26. No
+    // keyword starts with an x.
+    private static String name(int n) {
+        StringBuilder name = new StringBuilder("x");
+        do {
+            name.append((char)('a' + n % 26));
+            n /= 26;
+        } while(n > 0);
+        return name.toString();
+    }
+
+    // Prints an int, a string and a bool for every step
+    static String heavyPrinting(int statements) {
+        StringBuilder source = start();
+        source.append("var i : int := seed;\n");
+        for(int n = 0; n < statements; n++) {
+            source.append("i := i + 1;\n");
+            source.append("print i * 1000003;\n");
+            source.append("print \"line\";\n");
+            source.append("print i < 100;\n");
+        }
+        return source.toString();
+    }
+}
@@ -2,7 +2,7 @@
 // of the precedence of operations.
 // It uses the Visitor pattern recursively to print out the whole tree and adds 
 // parentheses around the expressions to indicate precedence.
-public class AstPrinter implements Expression.Visitor<String> {
+public class AstPrinter implements Expression.Visitor<String>, Statement.Visitor<String> {
     private String parenthesize(String name, Expression... expressions) {
         StringBuilder builder = new StringBuilder();
 
@@ -20,6 +20,43 @@ public class AstPrinter implements Expression.Visitor<String> {
         return expression.accept(this);
     }
 
+    String print(Statement statement) {
+        return statement.accept(this);
+    }
+
+    @Override
+    public String visitExpressionStatement(Statement.ExpressionStatement statement) {
+        return print(statement.expression);
+    }
+
+    @Override
+    public String visitPrintStatement(Statement.PrintStatement statement) {
+        return parenthesize("print", statement.expression);
+    }
+
+    @Override
+    public String visitVariableStatement(Statement.VariableStatement statement) {
+        String name = "var " + statement.name.lexeme + " : " + statement.valueType;
+        if(statement.initializer == null) return "(" + name + ")";
+        return parenthesize(name, statement.initializer);
+    }
+
+    @Override
+    public String visitForStatement(Statement.ForStatement statement) {
+        StringBuilder builder = new StringBuilder("(for ").append(statement.variable.lexeme);
+        builder.append(" ").append(print(statement.start));
+        builder.append(" ").append(print(statement.end));
+        for(Statement bodyStatement : statement.body) {
+            builder.append(" ").append(print(bodyStatement));
+        }
+        return builder.append(")").toString();
+    }
+
+    @Override
+    public String visitReadStatement(Statement.ReadStatement statement) {
+        return "(read " + statement.name.lexeme + ")";
+    }
+
     @Override
     public String visitUnaryExpression(Expression.Unary expression) {
         return this.parenthesize(expression.operator.lexeme, expression.expression);
@@ -33,6 +70,7 @@ public class AstPrinter implements Expression.Visitor<String> {
     @Override
     public String visitLiteralExpression(Expression.Literal expression) {
         if(expression.value == null) return null;
+        if(expression.value instanceof String) return "\"" + expression.value + "\"";
         return expression.value.toString();
     }
 
@@ -43,12 +81,11 @@ public class AstPrinter implements Expression.Visitor<String> {
 
     @Override
     public String visitVariableExpression(Expression.Variable expression) {
-        // TODO Auto-generated method stub
-        return null;
+        return expression.name.lexeme;
     }
 
     @Override
     public String visitAssignExpression(Expression.Assign expression) {
-        // TODO Auto-generated method stub
-        return null;
-    }}
+        return parenthesize(":= " + expression.name.lexeme, expression.value);
+    }
+}
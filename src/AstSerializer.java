@@ -0,0 +1,402 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes a checked Program into a compact binary form and reads it back, for
+// the ProgramCache. Everything the later stages need is kept: the tokens (for
+// error messages), the slots given by the Resolver and the types given by the
+// TypeChecker, so a program that is read back can be run right away.
+//
+// Every node starts with a tag byte. Strings are written once and after that
+// referred to by their index, because the same identifiers and operators come
+// up again and again.
+public class AstSerializer implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private static final int MAGIC = 0x4d504c43; // "MPLC"
+
+    private static final byte UNARY = 0;
+    private static final byte BINARY = 1;
+    private static final byte LITERAL = 2;
+    private static final byte GROUPING = 3;
+    private static final byte VARIABLE = 4;
+    private static final byte ASSIGN = 5;
+
+    private static final byte EXPRESSION_STATEMENT = 0;
+    private static final byte PRINT_STATEMENT = 1;
+    private static final byte VARIABLE_STATEMENT = 2;
+    private static final byte FOR_STATEMENT = 3;
+    private static final byte READ_STATEMENT = 4;
+
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte STRING = 2;
+    private static final byte BOOLEAN = 3;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final ValueType[] VALUE_TYPES = ValueType.values();
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private AstSerializer(DataOutputStream out) {
+        this.out = out;
+    }
+
+    static void write(Program program, DataOutputStream out) throws IOException {
+        AstSerializer serializer = new AstSerializer(out);
+        out.writeInt(MAGIC);
+        out.writeInt(program.variableCount);
+        out.writeInt(program.statements.size());
+        try {
+            for(Statement statement : program.statements) {
+                statement.accept(serializer);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // The whole entry is read into memory first, decoding from a ByteBuffer is
+    // a lot faster than going through an InputStream for every field
+    static Program read(ByteBuffer in) throws IOException {
+        if(in.getInt() != MAGIC) throw new IOException("Not a cached MiniPL program");
+        Reader reader = new Reader(in);
+        int variableCount = in.getInt();
+        int count = in.getInt();
+        List<Statement> statements = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            statements.add(reader.statement());
+        }
+        return new Program(statements, variableCount);
+    }
+
+    // The visitor methods can't throw IOException, so it is wrapped while
+    // the tree is being walked
+    private void writeByte(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeInt(int value) {
+        try {
+            out.writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLong(long value) {
+        try {
+            out.writeLong(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A string seen before is written as its index, a new one as -1 followed
+    // by its length and characters
+    private void writeString(String value) {
+        Integer index = strings.get(value);
+        if(index != null) {
+            writeInt(index);
+            return;
+        }
+        strings.put(value, strings.size());
+        writeInt(-1);
+        writeInt(value.length());
+        try {
+            out.writeChars(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeValue(Object value) {
+        if(value == null) {
+            writeByte(NULL);
+        } else if(value instanceof Long) {
+            writeByte(INTEGER);
+            writeLong((Long)value);
+        } else if(value instanceof Boolean) {
+            writeByte(BOOLEAN);
+            writeByte((Boolean)value ? 1 : 0);
+        } else {
+            writeByte(STRING);
+            writeString((String)value);
+        }
+    }
+
+    private void writeToken(Token token) {
+        writeByte(token.type.ordinal());
+        writeString(token.lexeme);
+        writeValue(token.literal);
+        writeInt(token.line);
+    }
+
+    private void writeType(ValueType type) {
+        writeByte(type == null ? -1 : type.ordinal());
+    }
+
+    private void write(Expression expression) {
+        expression.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        writeByte(EXPRESSION_STATEMENT);
+        writeInt(statement.line);
+        write(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        writeByte(PRINT_STATEMENT);
+        writeInt(statement.line);
+        write(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStatement(Statement.VariableStatement statement) {
+        writeByte(VARIABLE_STATEMENT);
+        writeInt(statement.line);
+        writeToken(statement.name);
+        writeByte(statement.type != null ? 1 : 0);
+        if(statement.type != null) writeToken(statement.type);
+        writeByte(statement.initializer != null ? 1 : 0);
+        if(statement.initializer != null) write(statement.initializer);
+        writeInt(statement.slot);
+        writeType(statement.valueType);
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(Statement.ForStatement statement) {
+        writeByte(FOR_STATEMENT);
+        writeInt(statement.line);
+        writeToken(statement.variable);
+        writeInt(statement.slot);
+        writeByte(statement.bodyReadsVariable ? 1 : 0);
+        write(statement.start);
+        write(statement.end);
+        writeInt(statement.body.length);
+        for(Statement bodyStatement : statement.body) {
+            bodyStatement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReadStatement(Statement.ReadStatement statement) {
+        writeByte(READ_STATEMENT);
+        writeInt(statement.line);
+        writeToken(statement.keyword);
+        writeToken(statement.name);
+        writeInt(statement.slot);
+        writeType(statement.valueType);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        writeByte(UNARY);
+        writeType(expression.type);
+        writeToken(expression.operator);
+        write(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        writeByte(BINARY);
+        writeType(expression.type);
+        writeToken(expression.operator);
+        write(expression.leftExpression);
+        write(expression.rightExpression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        writeByte(LITERAL);
+        writeType(expression.type);
+        writeValue(expression.value);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        writeByte(GROUPING);
+        writeType(expression.type);
+        write(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        writeByte(VARIABLE);
+        writeType(expression.type);
+        writeToken(expression.name);
+        writeInt(expression.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression) {
+        writeByte(ASSIGN);
+        writeType(expression.type);
+        writeToken(expression.name);
+        write(expression.value);
+        writeInt(expression.slot);
+        return null;
+    }
+
+    // Reads back what the visitor above wrote, in the same order
+    private static class Reader {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        Statement statement() throws IOException {
+            byte tag = in.get();
+            int line = in.getInt();
+            Statement statement;
+            switch(tag) {
+                case EXPRESSION_STATEMENT:
+                    statement = new Statement.ExpressionStatement(expression());
+                    break;
+                case PRINT_STATEMENT:
+                    statement = new Statement.PrintStatement(expression());
+                    break;
+                case VARIABLE_STATEMENT: {
+                    Token name = token();
+                    Token type = in.get() != 0 ? token() : null;
+                    Expression initializer = in.get() != 0 ? expression() : null;
+                    Statement.VariableStatement variable = new Statement.VariableStatement(name, type, initializer);
+                    variable.slot = in.getInt();
+                    variable.valueType = type();
+                    statement = variable;
+                    break;
+                }
+                case FOR_STATEMENT: {
+                    Token variable = token();
+                    int slot = in.getInt();
+                    boolean bodyReadsVariable = in.get() != 0;
+                    Expression start = expression();
+                    Expression end = expression();
+                    Statement[] body = new Statement[in.getInt()];
+                    for(int i = 0; i < body.length; i++) {
+                        body[i] = statement();
+                    }
+                    Statement.ForStatement loop = new Statement.ForStatement(variable, start, end, body);
+                    loop.slot = slot;
+                    loop.bodyReadsVariable = bodyReadsVariable;
+                    statement = loop;
+                    break;
+                }
+                case READ_STATEMENT: {
+                    Token keyword = token();
+                    Statement.ReadStatement read = new Statement.ReadStatement(keyword, token());
+                    read.slot = in.getInt();
+                    read.valueType = type();
+                    statement = read;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown statement tag " + tag);
+            }
+            statement.line = line;
+            return statement;
+        }
+
+        Expression expression() throws IOException {
+            byte tag = in.get();
+            ValueType type = type();
+            Expression expression;
+            switch(tag) {
+                case UNARY: {
+                    Token operator = token();
+                    expression = new Expression.Unary(operator, expression());
+                    break;
+                }
+                case BINARY: {
+                    Token operator = token();
+                    Expression left = expression();
+                    expression = new Expression.Binary(left, operator, expression());
+                    break;
+                }
+                case LITERAL:
+                    expression = new Expression.Literal(value());
+                    break;
+                case GROUPING:
+                    expression = new Expression.Grouping(expression());
+                    break;
+                case VARIABLE: {
+                    Expression.Variable variable = new Expression.Variable(token());
+                    variable.slot = in.getInt();
+                    expression = variable;
+                    break;
+                }
+                case ASSIGN: {
+                    Token name = token();
+                    Expression.Assign assign = new Expression.Assign(name, expression());
+                    assign.slot = in.getInt();
+                    expression = assign;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown expression tag " + tag);
+            }
+            expression.type = type;
+            return expression;
+        }
+
+        private String string() throws IOException {
+            int index = in.getInt();
+            if(index >= 0) return strings.get(index);
+
+            int length = in.getInt();
+            char[] characters = new char[length];
+            for(int i = 0; i < length; i++) {
+                characters[i] = in.getChar();
+            }
+            String value = new String(characters);
+            strings.add(value);
+            return value;
+        }
+
+        private Object value() throws IOException {
+            byte tag = in.get();
+            switch(tag) {
+                case NULL: return null;
+                case INTEGER: return in.getLong();
+                case BOOLEAN: return in.get() != 0;
+                case STRING: return string();
+            }
+            throw new IOException("Unknown value tag " + tag);
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TOKEN_TYPES[in.get()];
+            String lexeme = string();
+            Object literal = value();
+            return new Token(type, lexeme, literal, in.getInt());
+        }
+
+        private ValueType type() throws IOException {
+            byte ordinal = in.get();
+            return ordinal < 0 ? null : VALUE_TYPES[ordinal];
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Compiles and runs many MiniPL scripts at the same time on a ForkJoinPool.
+// The scripts are given either as a directory, in which case every file in it
+// is run, or as a manifest file that lists one script per line.
+//
+// Every script gets its own Diagnostics, its own engine and its own captured
+// output, so the scripts can't see each other. The results are printed in the
+// order of the scripts, no matter in which order they finish. The standard
+// input can't be shared between the scripts, so every script reads the file
+// given with --input from the start, or has no input at all.
+public class BatchRunner {
+    private final CompilerMain.Options options;
+    private final int threads;
+
+    BatchRunner(CompilerMain.Options options, int threads) {
+        this.options = options;
+        this.threads = threads;
+    }
+
+    static class Result {
+        final Path script;
+        final String status;
+        final String output;
+        final String errors;
+        final long sourceLength;
+        final long nanos;
+
+        Result(Path script, String status, String output, String errors, long sourceLength, long nanos) {
+            this.script = script;
+            this.status = status;
+            this.output = output;
+            this.errors = errors;
+            this.sourceLength = sourceLength;
+            this.nanos = nanos;
+        }
+    }
+
+    // The scripts of a directory are run in the order of their names. In a
+    // manifest empty lines and lines starting with '#' are skipped, and the
+    // paths are relative to the directory of the manifest.
+    static List<Path> scripts(Path input) throws IOException {
+        if(Files.isDirectory(input)) {
+            try(Stream<Path> files = Files.list(input)) {
+                return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+        }
+
+        List<Path> scripts = new ArrayList<>();
+        Path directory = input.toAbsolutePath().getParent();
+        for(String line : Files.readAllLines(input, Charset.defaultCharset())) {
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            scripts.add(directory.resolve(line));
+        }
+        return scripts;
+    }
+
+    public void run(Path input, PrintStream out) throws IOException {
+        List<Path> scripts = scripts(input);
+
+        long start = System.nanoTime();
+        List<Result> results = new ArrayList<>(scripts.size());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>(scripts.size());
+            for(Path script : scripts) {
+                tasks.add(pool.submit(() -> runScript(script)));
+            }
+            for(ForkJoinTask<Result> task : tasks) {
+                results.add(task.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int succeeded = 0;
+        long sourceLength = 0;
+        long busy = 0;
+        for(Result result : results) {
+            out.println("=== " + result.script + ": " + result.status);
+            out.print(result.output);
+            out.print(result.errors);
+            if(result.status.equals("ok")) succeeded++;
+            sourceLength += result.sourceLength;
+            busy += result.nanos;
+        }
+
+        double seconds = elapsed / 1e9;
+        out.println(String.format("Ran %d scripts on %d threads in %.1f ms: %d ok, %d failed",
+            results.size(), threads, elapsed / 1e6, succeeded, results.size() - succeeded));
+        out.println(String.format("%.1f scripts/s, %.2f MB of source/s, %.1f ms spent in the scripts",
+            results.size() / seconds, sourceLength / 1e6 / seconds, busy / 1e6));
+    }
+
+    // Compiles and runs one script with everything it prints captured
+    Result runScript(Path script) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        OutputSink out = OutputSink.toStream(output, OutputSink.FlushPolicy.ON_EXIT, 0);
+        PrintStream err = new PrintStream(errors, false, Charset.defaultCharset());
+        Diagnostics diagnostics = new Diagnostics(err);
+
+        String status;
+        long sourceLength = 0;
+        try {
+            byte[] source = Files.readAllBytes(script);
+            sourceLength = source.length;
+            Program program = CompilerMain.load(source, options, diagnostics);
+            if(program == null) {
+                status = "compile error";
+            } else {
+                InputSource in = options.inputFile != null ? InputSource.fromFile(options.inputFile) : InputSource.empty();
+                try {
+                    CompilerMain.execute(program, options, out, in, diagnostics);
+                } finally {
+                    in.close();
+                }
+                status = diagnostics.hadRuntimeError ? "runtime error" : "ok";
+            }
+        } catch (IOException e) {
+            status = "unable to read file";
+        } catch (RuntimeException | StackOverflowError e) {
+            status = "failed: " + e;
+        }
+
+        out.flush();
+        err.flush();
+        return new Result(script, status, output.toString(Charset.defaultCharset()),
+            errors.toString(Charset.defaultCharset()), sourceLength, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,804 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+// A small timing harness for comparing the different ways of running MiniPL
+// programs. It is not part of the compiler itself, run it with:
+//
+//     java -cp <classes> Benchmark engines [statements] [runs]
+//     java -cp <classes> Benchmark frontend [statements] [runs]
+//     java -cp <classes> Benchmark lexers [statements] [runs]
+//     java -cp <classes> Benchmark cache [statements] [runs]
+//     java -cp <classes> Benchmark optimizer [statements] [runs]
+//     java -cp <classes> Benchmark loops [iterations] [runs]
+//     java -cp <classes> Benchmark output [numbers] [runs]
+//     java -cp <classes> Benchmark input [numbers] [runs]
+//     java -cp <classes> Benchmark profile [iterations] [runs]
+//     java -cp <classes> Benchmark fuel [iterations] [runs]
+//     java -cp <classes> Benchmark script [statements] [runs]
+//     java -cp <classes> Benchmark server [statements] [runs]
+//     java -cp <classes> Benchmark incremental [statements] [runs]
+//     java -cp <classes> Benchmark strings [iterations] [runs]
+//     java -cp <classes> Benchmark invariants [iterations] [runs]
+//     java -cp <classes> Benchmark precompute [statements] [runs]
+//     java -cp <classes> Benchmark ingest [megabytes]
+//
+// The programs are generated so that they look like the accumulator loops in
+// doc/test_full_language.txt, written out as straight-line code.
+public class Benchmark {
+
+    public static void main(String[] args) {
+        if(args.length == 0) {
+            System.out.println("Usage: Benchmark engines|frontend|lexers|cache|optimizer|loops|output|input|profile|fuel|script|server|incremental|strings|invariants|precompute|ingest [statements] [runs]");
+            return;
+        }
+
+        switch(args[0]) {
+            case "engines":
+                engines(intArgument(args, 1, 2000), intArgument(args, 2, 2000));
+                break;
+            case "frontend":
+                frontend(intArgument(args, 1, 100000), intArgument(args, 2, 20));
+                break;
+            case "lexers":
+                lexers(intArgument(args, 1, 100000), intArgument(args, 2, 40));
+                break;
+            case "cache":
+                cache(intArgument(args, 1, 100000), intArgument(args, 2, 20));
+                break;
+            case "optimizer":
+                optimizer(intArgument(args, 1, 2000), intArgument(args, 2, 2000));
+                break;
+            case "loops":
+                loops(intArgument(args, 1, 100000000), intArgument(args, 2, 3));
+                break;
+            case "output":
+                output(intArgument(args, 1, 1000000), intArgument(args, 2, 10));
+                break;
+            case "input":
+                input(intArgument(args, 1, 10000000), intArgument(args, 2, 4));
+                break;
+            case "profile":
+                profile(intArgument(args, 1, 10000000), intArgument(args, 2, 6));
+                break;
+            case "fuel":
+                fuel(intArgument(args, 1, 100000000), intArgument(args, 2, 6));
+                break;
+            case "script":
+                script(intArgument(args, 1, 2000), intArgument(args, 2, 2000));
+                break;
+            case "server":
+                server(intArgument(args, 1, 2000), intArgument(args, 2, 1000));
+                break;
+            case "incremental":
+                incremental(intArgument(args, 1, 100000), intArgument(args, 2, 200));
+                break;
+            case "strings":
+                strings(intArgument(args, 1, 1000000), intArgument(args, 2, 10));
+                break;
+            case "invariants":
+                invariants(intArgument(args, 1, 10000000), intArgument(args, 2, 6));
+                break;
+            case "precompute":
+                precompute(intArgument(args, 1, 2000), intArgument(args, 2, 2000));
+                break;
+            case "ingest":
+                ingest(intArgument(args, 1, 1024));
+                break;
+            case "ingest-run":
+                ingestRun(args[1], Paths.get(args[2]));
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + args[0]);
+        }
+    }
+
+    private static int intArgument(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    static String accumulatorProgram(int statements) {
+        StringBuilder source = new StringBuilder();
+        source.append("var v : int := 1;\n");
+        source.append("var i : int := 0;\n");
+        source.append("var big : bool;\n");
+        for(int n = 0; n < statements; n++) {
+            source.append("i := i + 1;\n");
+            source.append("v := v * i + (i - 1) / 2 - -3;\n");
+            source.append("big := v < 0 = (i > 100);\n");
+        }
+        source.append("print v;\n");
+        return source.toString();
+    }
+
+    // Like the scripts generated by tools, with constant subexpressions,
+    // redundant parentheses and double negations
+    static String constantsProgram(int statements) {
+        StringBuilder source = new StringBuilder();
+        source.append("var k : int := 4 + (6 * 2);\n");
+        source.append("var v : int := 0;\n");
+        source.append("var big : bool;\n");
+        for(int n = 0; n < statements; n++) {
+            source.append("v := (v * 1) + ((4 + (6 * 2)) - --(k + 0)) + (k / 1);\n");
+            source.append("big := !!(v < (k * (100 - 1)));\n");
+        }
+        source.append("print v;\n");
+        return source.toString();
+    }
+
+    // A counted loop with a small body that reads the loop variable
+    static String loopProgram(int iterations) {
+        return "var sum : int := 0;\n"
+            + "var i : int;\n"
+            + "for i in 1.." + iterations + " do\n"
+            + "  sum := sum + i * 3 - sum / 7;\n"
+            + "end for;\n"
+            + "print sum;\n";
+    }
+
+    // Prints every number of a range
+    static String printProgram(int numbers) {
+        return "var i : int;\n"
+            + "for i in 1.." + numbers + " do\n"
+            + "  print i * 7919;\n"
+            + "end for;\n";
+    }
+
+    // Adds up the numbers of its input
+    static String readProgram(int numbers) {
+        return "var sum : int := 0;\n"
+            + "var n : int;\n"
+            + "var i : int;\n"
+            + "for i in 1.." + numbers + " do\n"
+            + "  read n;\n"
+            + "  sum := sum + n;\n"
+            + "end for;\n"
+            + "print sum;\n";
+    }
+
+    // A loop whose body recomputes values that don't change in the loop. The
+    // variables are assigned twice, so the Optimizer can't fold them.
+    static String invariantProgram(int iterations) {
+        return "var sum : int := 0;\n"
+            + "var k : int := 7;\n"
+            + "var m : int := 3;\n"
+            + "k := k + 1;\n"
+            + "m := m * 2;\n"
+            + "var i : int;\n"
+            + "for i in 1.." + iterations + " do\n"
+            + "  sum := sum + i * (k * m + 1) / 2 - (k - m) * (k + m);\n"
+            + "end for;\n"
+            + "print sum;\n";
+    }
+
+    // Builds a string by appending to it in a loop
+    static String concatProgram(int iterations) {
+        return "var s : string;\n"
+            + "var i : int;\n"
+            + "for i in 1.." + iterations + " do\n"
+            + "  s := s + \"ab\";\n"
+            + "end for;\n"
+            + "print s = s + \"\";\n";
+    }
+
+    // Runs the whole front end, the same way CompilerMain does
+    static List<Statement> compile(String source) {
+        return compileProgram(source).statements;
+    }
+
+    // With the number of slots, which the Optimizer can add to. The programs
+    // don't read, so the PartialEvaluator would leave nothing for the engines
+    // to run and is turned off.
+    static Program compileProgram(String source) {
+        CompilerMain.Options options = new CompilerMain.Options();
+        options.precompute = false;
+        Program program = CompilerMain.compile(source, options, new Diagnostics(System.err));
+        if(program == null) throw new IllegalStateException("The benchmark program has errors");
+        return program;
+    }
+
+    // Engines print here, so that their output doesn't end up in the results
+    private static final OutputSink discard =
+        OutputSink.toStream(OutputStream.nullOutputStream(), OutputSink.FlushPolicy.ON_EXIT, 0);
+    private static final InputSource noInput = InputSource.empty();
+    private static final Diagnostics diagnostics = new Diagnostics(System.err);
+
+    private static void engines(int statements, int runs) {
+        Program compiled = compileProgram(accumulatorProgram(statements));
+        List<Statement> program = compiled.statements;
+        int variableCount = compiled.variableCount;
+
+        Interpreter interpreter = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+        Chunk chunk = new BytecodeCompiler().compile(program, variableCount);
+        VirtualMachine virtualMachine = new VirtualMachine(discard, noInput, diagnostics);
+        SpecializingInterpreter specializingInterpreter = new SpecializingInterpreter(discard, noInput, diagnostics);
+        Node.Program nodes = specializingInterpreter.prepare(program);
+
+        System.out.println("Running " + (3 * statements) + " statements, " + runs + " runs per engine");
+        double interpreterTime = time("Interpreter", runs, () -> interpreter.interpretExpression(program));
+        time("VirtualMachine", runs, () -> virtualMachine.interpret(chunk), interpreterTime);
+        time("SpecializingInterpreter", runs, () -> specializingInterpreter.interpret(nodes), interpreterTime);
+    }
+
+    // Lexing and parsing through a token list, a token stream and a TokenBuffer
+    private static void frontend(int statements, int runs) {
+        String source = accumulatorProgram(statements);
+
+        System.out.println("Parsing " + source.length() + " characters, " + runs + " runs per front end");
+        double listTime = time("List<Token>", runs,
+            () -> new Parser(new Lexer(source, diagnostics).scanFileForTokens(), diagnostics).parseTokens());
+        time("TokenStream", runs, () -> new Parser(new Lexer(source, diagnostics), diagnostics).parseTokens(), listTime);
+        time("TokenBuffer", runs, () -> new Parser(new Lexer(source, diagnostics).scanIntoBuffer(), diagnostics).parseTokens(), listTime);
+    }
+
+    // Scanning alone with the Lexer and the TableLexer, both into a token
+    // list and into a TokenBuffer
+    private static void lexers(int statements, int runs) {
+        String source = accumulatorProgram(statements);
+        int tokens = new Lexer(source, diagnostics).scanIntoBuffer().size();
+
+        System.out.println("Scanning " + tokens + " tokens, " + runs + " runs per lexer");
+        double listTime = time("Lexer List<Token>", runs, () -> new Lexer(source, diagnostics).scanFileForTokens());
+        printTokenRate(tokens, listTime);
+        printTokenRate(tokens, time("TableLexer List<Token>", runs,
+            () -> new TableLexer(source, diagnostics).scanFileForTokens(), listTime));
+        double bufferTime = time("Lexer TokenBuffer", runs, () -> new Lexer(source, diagnostics).scanIntoBuffer());
+        printTokenRate(tokens, bufferTime);
+        printTokenRate(tokens, time("TableLexer TokenBuffer", runs,
+            () -> new TableLexer(source, diagnostics).scanIntoBuffer(), bufferTime));
+    }
+
+    // Compiling a program from source against loading it from the ProgramCache
+    private static void cache(int statements, int runs) {
+        byte[] source = accumulatorProgram(statements).getBytes(Charset.defaultCharset());
+        CompilerMain.Options options = new CompilerMain.Options();
+        try {
+            options.cacheDirectory = Files.createTempDirectory("minipl-cache");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        options.precompute = false;
+        ProgramCache cache = new ProgramCache(options.cacheDirectory, options.cacheBytes);
+        String key = ProgramCache.key(ByteBuffer.wrap(source), Charset.defaultCharset(), options.optimize, options.precompute);
+        cache.store(key, CompilerMain.compile(new String(source, Charset.defaultCharset()), options, diagnostics));
+
+        System.out.println("Loading " + source.length + " bytes of source, " + runs + " runs each");
+        double compileTime = time("Compile from source", runs,
+            () -> CompilerMain.compile(new String(source, Charset.defaultCharset()), options, diagnostics));
+        time("Load from cache", runs, () -> cache.load(key), compileTime);
+    }
+
+    // The Interpreter on a program before and after the Optimizer
+    private static void optimizer(int statements, int runs) {
+        String source = constantsProgram(statements);
+        CompilerMain.Options options = new CompilerMain.Options();
+        options.optimize = false;
+        List<Statement> plain = CompilerMain.compile(source, options, diagnostics).statements;
+        List<Statement> optimized = compile(source);
+        Interpreter interpreter = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+
+        System.out.println("Running " + (2 * statements) + " statements, " + runs + " runs each");
+        double plainTime = time("Not optimized", runs, () -> interpreter.interpretExpression(plain));
+        time("Optimized", runs, () -> interpreter.interpretExpression(optimized), plainTime);
+    }
+
+    // Loop throughput of every engine, including a compiled JVM class
+    private static void loops(int iterations, int runs) {
+        Program compiled = compileProgram(loopProgram(iterations));
+        List<Statement> program = compiled.statements;
+        int variableCount = compiled.variableCount;
+
+        Interpreter interpreter = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+        Chunk chunk = new BytecodeCompiler().compile(program, variableCount);
+        VirtualMachine virtualMachine = new VirtualMachine(discard, noInput, diagnostics);
+        SpecializingInterpreter specializingInterpreter = new SpecializingInterpreter(discard, noInput, diagnostics);
+        Node.Program nodes = specializingInterpreter.prepare(program);
+        Path classFile;
+        try {
+            classFile = Files.createTempDirectory("minipl-loops").resolve("MiniPL_loops.class");
+            Files.write(classFile, new JvmCompiler("MiniPL_loops", variableCount).compile(program));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        System.out.println("Running " + iterations + " iterations, " + runs + " runs per engine");
+        printIterationRate(iterations, time("Interpreter", runs, () -> interpreter.interpretExpression(program)));
+        printIterationRate(iterations, time("VirtualMachine", runs, () -> virtualMachine.interpret(chunk)));
+        printIterationRate(iterations, time("SpecializingInterpreter", runs, () -> specializingInterpreter.interpret(nodes)));
+        printIterationRate(iterations, time("JvmCompiler", runs, () -> {
+            try {
+                JvmCompiler.runClassFile(classFile, discard, noInput, diagnostics);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+    }
+
+    // Appending to a string in a loop, in every engine that runs on values.
+    // With Ropes four times the iterations take about four times as long,
+    // copying the whole string for every '+' would take sixteen times.
+    private static void strings(int iterations, int runs) {
+        for(int n : new int[] {iterations, 4 * iterations}) {
+            Program compiled = compileProgram(concatProgram(n));
+            List<Statement> program = compiled.statements;
+            Interpreter interpreter = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+            Chunk chunk = new BytecodeCompiler().compile(program, compiled.variableCount);
+            VirtualMachine virtualMachine = new VirtualMachine(discard, noInput, diagnostics);
+            SpecializingInterpreter specializingInterpreter = new SpecializingInterpreter(discard, noInput, diagnostics);
+            Node.Program nodes = specializingInterpreter.prepare(program);
+
+            System.out.println("Appending " + n + " times, " + runs + " runs per engine");
+            printIterationRate(n, time("Interpreter", runs, () -> interpreter.interpretExpression(program)));
+            printIterationRate(n, time("VirtualMachine", runs, () -> virtualMachine.interpret(chunk)));
+            printIterationRate(n, time("SpecializingInterpreter", runs,
+                () -> specializingInterpreter.interpret(nodes)));
+        }
+    }
+
+    // Every engine on a loop with and without moving the invariant
+    // expressions out of it
+    private static void invariants(int iterations, int runs) {
+        String source = invariantProgram(iterations);
+        CompilerMain.Options options = new CompilerMain.Options();
+        options.optimize = false;
+        Program plain = CompilerMain.compile(source, options, diagnostics);
+        Program optimized = compileProgram(source);
+
+        System.out.println("Running " + iterations + " iterations, " + runs + " runs each");
+        for(Program program : List.of(plain, optimized)) {
+            String name = program == plain ? " plain" : " hoisted";
+            Interpreter interpreter = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+            Chunk chunk = new BytecodeCompiler().compile(program.statements, program.variableCount);
+            VirtualMachine virtualMachine = new VirtualMachine(discard, noInput, diagnostics);
+            SpecializingInterpreter specializingInterpreter = new SpecializingInterpreter(discard, noInput, diagnostics);
+            Node.Program nodes = specializingInterpreter.prepare(program.statements);
+
+            printIterationRate(iterations, time("Interpreter" + name, runs,
+                () -> interpreter.interpretExpression(program.statements)));
+            printIterationRate(iterations, time("VirtualMachine" + name, runs, () -> virtualMachine.interpret(chunk)));
+            printIterationRate(iterations, time("Specializing" + name, runs,
+                () -> specializingInterpreter.interpret(nodes)));
+        }
+    }
+
+    // Reading a source file of the given size into a String for the Lexer,
+    // like CompilerMain used to, against mapping it for the Utf8Lexer, and
+    // against what load() does with the default options before it starts the
+    // Utf8Lexer: the time until the first token, the time to scan the whole
+    // file and the peak resident set size. The peak can't be reset, so every
+    // way runs in a JVM of its own, with a heap large enough for the String.
+    private static void ingest(int megabytes) {
+        Path file;
+        try {
+            file = Files.createTempFile("minipl-ingest", ".txt");
+            byte[] block = accumulatorProgram(1000).getBytes(CompilerMain.SOURCE_CHARSET);
+            long size = megabytes * 1024L * 1024L;
+            try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+                for(long written = 0; written < size; written += block.length) {
+                    out.write(block);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        System.out.println("Scanning " + megabytes + " MB of source");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        try {
+            for(String way : List.of("read", "map", "load")) {
+                Process process = new ProcessBuilder(java, "-Xmx" + (3 * megabytes + 512) + "m",
+                    "-cp", System.getProperty("java.class.path"), "Benchmark", "ingest-run", way, file.toString())
+                    .inheritIO()
+                    .start();
+                process.waitFor();
+            }
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void ingestRun(String way, Path file) {
+        long start = System.nanoTime();
+        TokenSource lexer;
+        try {
+            if(way.equals("read")) {
+                byte[] bytes = Files.readAllBytes(file);
+                lexer = new Lexer(new String(bytes, CompilerMain.SOURCE_CHARSET), diagnostics);
+            } else if(way.equals("map")) {
+                lexer = new Utf8Lexer(CompilerMain.map(file), diagnostics);
+            } else {
+                // Hashed for the cache key first, unless it's too large
+                ByteBuffer source = CompilerMain.map(file);
+                CompilerMain.Options options = new CompilerMain.Options();
+                if(CompilerMain.usesCache(source, options)) {
+                    ProgramCache.key(source, CompilerMain.SOURCE_CHARSET, options.optimize, options.precomputes());
+                }
+                lexer = new Utf8Lexer(source, diagnostics);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lexer.nextToken();
+        double firstToken = (System.nanoTime() - start) / 1e6;
+        long tokens = 1;
+        while(lexer.nextToken().type != TokenType.EOF) {
+            tokens++;
+        }
+        double all = (System.nanoTime() - start) / 1e6;
+
+        System.out.println(String.format("%-5s first token %9.1f ms, %d tokens in %9.1f ms, peak RSS %s",
+            way, firstToken, tokens, all, peakResidentSetSize()));
+    }
+
+    // From /proc, on Linux only
+    private static String peakResidentSetSize() {
+        try {
+            for(String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if(line.startsWith("VmHWM:")) {
+                    long kilobytes = Long.parseLong(line.substring("VmHWM:".length()).trim().split("\\s+")[0]);
+                    return String.format("%.1f MB", kilobytes / 1024.0);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not available here
+        }
+        return "unknown";
+    }
+
+    // A program that doesn't read, run as it is and as what the
+    // PartialEvaluator leaves of it, and what the PartialEvaluator costs
+    private static void precompute(int statements, int runs) {
+        String source = accumulatorProgram(statements);
+        CompilerMain.Options options = new CompilerMain.Options();
+        options.optimize = false;
+        Program checked = CompilerMain.compile(source, options, diagnostics);
+        Program full = compileProgram(source);
+        Program residual = CompilerMain.compile(source, new CompilerMain.Options(), diagnostics);
+        Interpreter interpreter = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+
+        System.out.println("Running " + (3 * statements) + " statements, " + residual.statements.size()
+            + " left after precomputing, " + runs + " runs each");
+        double fullTime = time("Interpreter", runs, () -> interpreter.interpretExpression(full.statements));
+        time("Interpreter precomputed", runs, () -> interpreter.interpretExpression(residual.statements), fullTime);
+        time("PartialEvaluator", runs, () -> new PartialEvaluator(checked.variableCount).evaluate(checked), fullTime);
+    }
+
+    // What --profile costs. The plain Interpreter is timed first, before the
+    // ProfilingInterpreter is loaded, like in a run without --profile.
+    private static void profile(int iterations, int runs) {
+        List<Statement> program = compile(loopProgram(iterations));
+        System.out.println("Running " + iterations + " iterations, " + runs + " runs");
+        Interpreter interpreter = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+        double baseline = time("Interpreter", runs, () -> interpreter.interpretExpression(program));
+        printIterationRate(iterations, baseline);
+        ProfilingInterpreter profiler = new ProfilingInterpreter(discard, noInput, Fuel.unlimited(), diagnostics, false);
+        printIterationRate(iterations, time("ProfilingInterpreter", runs,
+            () -> profiler.interpretExpression(program), baseline));
+    }
+
+    // What --max-steps and --timeout cost when they are never reached. The
+    // body is a single statement, so every iteration takes a step.
+    private static void fuel(int iterations, int runs) {
+        List<Statement> program = compile(loopProgram(iterations));
+        System.out.println("Running " + iterations + " iterations, " + runs + " runs");
+        Interpreter unlimited = new Interpreter(discard, noInput, Fuel.unlimited(), diagnostics);
+        double baseline = time("no limits", runs, () -> unlimited.interpretExpression(program));
+        printIterationRate(iterations, baseline);
+        Interpreter steps = new Interpreter(discard, noInput, new Fuel(Long.MAX_VALUE, 0), diagnostics);
+        printIterationRate(iterations, time("step limit", runs,
+            () -> steps.interpretExpression(program), baseline));
+        Interpreter both = new Interpreter(discard, noInput, new Fuel(Long.MAX_VALUE, 3600000), diagnostics);
+        printIterationRate(iterations, time("step and time limit", runs,
+            () -> both.interpretExpression(program), baseline));
+    }
+
+    // Running a script through javax.script from its source every time, and
+    // compiled once and then evaluated, with a new context for every run like
+    // a service would have for every request
+    private static void script(int statements, int runs) {
+        String source = accumulatorProgram(statements);
+        MiniPLScriptEngine engine = (MiniPLScriptEngine)new MiniPLScriptEngineFactory().getScriptEngine();
+        engine.options.precompute = false;
+
+        System.out.println("Running " + (3 * statements) + " statements, " + runs + " runs");
+        double baseline = time("eval(source)", runs, () -> {
+            try {
+                engine.eval(source, scriptContext());
+            } catch (ScriptException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        MiniPLScriptEngine.Compiled compiled;
+        try {
+            compiled = engine.compile(source);
+        } catch (ScriptException e) {
+            throw new IllegalStateException(e);
+        }
+        time("compiled.eval()", runs, () -> {
+            try {
+                compiled.eval(scriptContext());
+            } catch (ScriptException e) {
+                throw new IllegalStateException(e);
+            }
+        }, baseline);
+    }
+
+    // Typing in the middle of a large file: parsing the whole file again after
+    // every keystroke against the IncrementalParser, which only parses the
+    // statement that was typed in. Every edit adds a line and takes it away
+    // again, so the statements after it move.
+    private static void incremental(int statements, int runs) {
+        String source = accumulatorProgram(statements);
+        int middle = source.indexOf('\n', source.length() / 2) + 1;
+        String[] edits = {"print 1;", "\n", "print 12;"};
+
+        System.out.println("Editing " + source.length() + " characters, " + runs + " runs");
+        double baseline = time("full parse", runs, () -> {
+            String edited = source.substring(0, middle) + edits[0] + source.substring(middle);
+            new Parser(new Lexer(edited, diagnostics).scanFileForTokens(), diagnostics).parseTokens();
+        });
+        IncrementalParser parser = new IncrementalParser(source);
+        List<Statement> before = parser.statements();
+        time("incremental edit", runs, () -> {
+            for(String edit : edits) {
+                parser.edit(middle, 0, edit);
+                parser.edit(middle, edit.length(), "");
+            }
+        }, baseline * edits.length * 2);
+        time("edit and statements()", runs, () -> {
+            parser.edit(middle, 0, "\n");
+            parser.statements();
+            parser.edit(middle, 1, "");
+        }, baseline * 2);
+
+        List<Statement> after = parser.statements();
+        int kept = 0;
+        for(int i = 0; i < after.size(); i++) {
+            if(after.get(i) == before.get(i)) kept++;
+        }
+        System.out.println("Last edit parsed " + parser.reparsedStatements() + " statements again, "
+            + kept + " of " + after.size() + " nodes are the ones of the first parse");
+    }
+
+    // The round trip of a script through a ScriptServer in this JVM. The
+    // first request runs on cold code, like every run of the command line
+    // does, the later ones on code the JIT has compiled.
+    private static void server(int statements, int runs) {
+        byte[] source = accumulatorProgram(statements).getBytes(Charset.defaultCharset());
+        List<String> arguments = List.of("--no-precompute");
+        Path socket = Paths.get(System.getProperty("java.io.tmpdir"), "minipl-benchmark-" + ProcessHandle.current().pid() + ".sock");
+        CompilerMain.Options serverOptions = new CompilerMain.Options();
+        serverOptions.useCache = false;
+        ScriptServer server = new ScriptServer(UnixDomainSocketAddress.of(socket), serverOptions);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        ScriptClient client = new ScriptClient(UnixDomainSocketAddress.of(socket));
+        Runnable request = () -> {
+            try {
+                client.run(source, arguments, InputStream.nullInputStream(), OutputStream.nullOutputStream(),
+                    OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        // The server may still be binding the socket
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while(!Files.exists(socket) && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+
+        System.out.println("Running " + (3 * statements) + " statements, " + runs + " runs");
+        time("first request", 1, request);
+        double baseline = time("in process", runs, () -> {
+            CompilerMain.Options options = new CompilerMain.Options();
+            options.precompute = false;
+            Program program = CompilerMain.compile(new String(source, Charset.defaultCharset()), options, diagnostics);
+            CompilerMain.execute(program, options, discard, noInput, diagnostics);
+        });
+        time("warm request", runs, request, baseline);
+    }
+
+    private static ScriptContext scriptContext() {
+        SimpleScriptContext context = new SimpleScriptContext();
+        context.setWriter(Writer.nullWriter());
+        context.setReader(new StringReader(""));
+        return context;
+    }
+
+    // Printing numbers to /dev/null the way the engines used to, through a
+    // PrintStream set up like System.out, against the OutputSink with every
+    // flush policy. The last two run a print loop on the engines.
+    private static void output(int numbers, int runs) {
+        Path devNull = Paths.get("/dev/null");
+        PrintStream printStream;
+        try {
+            printStream = new PrintStream(new BufferedOutputStream(Files.newOutputStream(devNull), 128), true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        System.out.println("Printing " + numbers + " numbers, " + runs + " runs");
+        double baseline = time("PrintStream", runs, () -> {
+            for(int i = 1; i <= numbers; i++) {
+                printStream.println(i * 7919L);
+            }
+        });
+        printNumberRate(numbers, baseline);
+        printStream.close();
+
+        Program compiled = compileProgram(printProgram(numbers));
+        List<Statement> program = compiled.statements;
+        Chunk chunk = new BytecodeCompiler().compile(program, compiled.variableCount);
+        try {
+            OutputSink onExit = OutputSink.toFile(devNull, OutputSink.FlushPolicy.ON_EXIT, 0);
+            OutputSink everyBytes = OutputSink.toFile(devNull, OutputSink.FlushPolicy.EVERY_N_BYTES, 4096);
+            OutputSink onNewline = OutputSink.toFile(devNull, OutputSink.FlushPolicy.ON_NEWLINE, 0);
+            printNumberRate(numbers, time("OutputSink exit", runs, () -> printNumbers(onExit, numbers), baseline));
+            printNumberRate(numbers, time("OutputSink 4096", runs, () -> printNumbers(everyBytes, numbers), baseline));
+            printNumberRate(numbers, time("OutputSink line", runs, () -> printNumbers(onNewline, numbers), baseline));
+
+            Interpreter interpreter = new Interpreter(onExit, noInput, Fuel.unlimited(), diagnostics);
+            VirtualMachine virtualMachine = new VirtualMachine(onExit, noInput, diagnostics);
+            printNumberRate(numbers, time("Interpreter", runs, () -> interpreter.interpretExpression(program)));
+            printNumberRate(numbers, time("VirtualMachine", runs, () -> virtualMachine.interpret(chunk)));
+            onExit.close();
+            everyBytes.close();
+            onNewline.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Keeps the JIT from dropping the loops whose result is not used
+    private static long checksum;
+
+    // Reading numbers from a file with a BufferedReader and Long.parseLong()
+    // for every line, the usual fast way in Java, against the InputSource on
+    // its own and in the engines, which add up the numbers they read
+    private static void input(int numbers, int runs) {
+        Path file;
+        try {
+            file = Files.createTempFile("minipl-input", ".txt");
+            file.toFile().deleteOnExit();
+            OutputSink out = OutputSink.toFile(file, OutputSink.FlushPolicy.ON_EXIT, 0);
+            for(int i = 0; i < numbers; i++) {
+                out.println(i * 7919L - 5000000);
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        System.out.println("Reading " + numbers + " integers, " + runs + " runs");
+        double baseline = time("BufferedReader", runs, () -> {
+            try(BufferedReader reader = Files.newBufferedReader(file)) {
+                long sum = 0;
+                String line;
+                while((line = reader.readLine()) != null) {
+                    sum += Long.parseLong(line);
+                }
+                checksum += sum;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        printNumberRate(numbers, baseline);
+
+        Token read = new Token(TokenType.READ, "read", null, 1);
+        printNumberRate(numbers, time("InputSource", runs, () -> {
+            InputSource in = openInput(file);
+            long sum = 0;
+            for(int i = 0; i < numbers; i++) {
+                sum += in.readInteger(read);
+            }
+            in.close();
+            checksum += sum;
+        }, baseline));
+
+        Program compiled = compileProgram(readProgram(numbers));
+        List<Statement> program = compiled.statements;
+        Chunk chunk = new BytecodeCompiler().compile(program, compiled.variableCount);
+        printNumberRate(numbers, time("Interpreter", runs, () -> {
+            InputSource in = openInput(file);
+            new Interpreter(discard, in, Fuel.unlimited(), diagnostics).interpretExpression(program);
+            in.close();
+        }, baseline));
+        printNumberRate(numbers, time("VirtualMachine", runs, () -> {
+            InputSource in = openInput(file);
+            new VirtualMachine(discard, in, diagnostics).interpret(chunk);
+            in.close();
+        }, baseline));
+    }
+
+    private static InputSource openInput(Path file) {
+        try {
+            return InputSource.fromFile(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void printNumbers(OutputSink out, int numbers) {
+        for(int i = 1; i <= numbers; i++) {
+            out.println(i * 7919L);
+        }
+        out.flush();
+    }
+
+    private static void printNumberRate(int numbers, double milliseconds) {
+        System.out.println(String.format("%-24s %10.2f M numbers/s", "", numbers / milliseconds / 1e3));
+    }
+
+    private static void printIterationRate(int iterations, double milliseconds) {
+        System.out.println(String.format("%-24s %10.2f M iterations/s", "", iterations / milliseconds / 1e3));
+    }
+
+    private static void printTokenRate(int tokens, double milliseconds) {
+        System.out.println(String.format("%-24s %10.2f M tokens/s", "", tokens / milliseconds / 1e3));
+    }
+
+    private static double time(String name, int runs, Runnable run) {
+        return time(name, runs, run, 0);
+    }
+
+    // Returns the average time of one run in milliseconds. The first half of
+    // the runs is used to warm up the JIT and is not measured. The output of
+    // the programs is thrown away while they are running.
+    private static double time(String name, int runs, Runnable run, double baseline) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = 0;
+        long allocatedAtStart = 0;
+        try {
+            for(int i = 0; i < runs; i++) {
+                if(i == runs / 2) {
+                    start = System.nanoTime();
+                    allocatedAtStart = threads.getCurrentThreadAllocatedBytes();
+                }
+                run.run();
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        int measuredRuns = runs - runs / 2;
+        double milliseconds = (System.nanoTime() - start) / 1e6 / measuredRuns;
+        double allocated = (threads.getCurrentThreadAllocatedBytes() - allocatedAtStart) / 1e6 / measuredRuns;
+        String line = String.format("%-24s %10.3f ms/run %10.2f MB/run", name, milliseconds, allocated);
+        if(baseline > 0) {
+            line += String.format("  (%.2fx)", baseline / milliseconds);
+        }
+        System.out.println(line);
+        return milliseconds;
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.List;
+
+// Turns the statements produced by the Parser into a Chunk of bytecode for the
+// VirtualMachine. Like the AstPrinter and the Interpreter, it walks the tree
+// with the Visitor pattern, but instead of computing values it emits the
+// instructions that will compute them later.
+public class BytecodeCompiler implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private final Chunk chunk = new Chunk();
+
+    private int stackSize = 0;
+
+    // The statements must have been through the Resolver, the VM uses the
+    // same slot numbers for its variable array.
+    public Chunk compile(List<Statement> statements, int variableCount) {
+        for(Statement statement : statements) {
+            statement.accept(this);
+        }
+        emit(OpCode.HALT, null, 0);
+
+        chunk.variableCount = variableCount;
+        return chunk;
+    }
+
+    // Every instruction is emitted together with its effect on the stack, so
+    // that the VM knows in advance how big a stack it needs.
+    private void emit(int opCode, Token token, int stackEffect) {
+        chunk.write(opCode, token);
+        adjustStack(stackEffect);
+    }
+
+    private void emit(int opCode, int operand, Token token, int stackEffect) {
+        chunk.write(opCode, token);
+        chunk.write(operand, token);
+        adjustStack(stackEffect);
+    }
+
+    private void emit(int opCode, int first, int second, Token token, int stackEffect) {
+        chunk.write(opCode, token);
+        chunk.write(first, token);
+        chunk.write(second, token);
+        adjustStack(stackEffect);
+    }
+
+    private void adjustStack(int stackEffect) {
+        stackSize += stackEffect;
+        if(stackSize > chunk.maxStackSize) {
+            chunk.maxStackSize = stackSize;
+        }
+    }
+
+    private void compile(Expression expression) {
+        expression.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        compile(statement.expression);
+        emit(OpCode.POP, null, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        compile(statement.expression);
+        emit(OpCode.PRINT, null, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStatement(Statement.VariableStatement statement) {
+        if(statement.initializer != null) {
+            compile(statement.initializer);
+        } else {
+            emit(OpCode.CONSTANT, chunk.addConstant(statement.valueType.defaultValue()), null, 1);
+        }
+        emit(OpCode.DEFINE_VARIABLE, statement.slot, statement.name, -1);
+        return null;
+    }
+
+    // The counter and the end stay on the stack while the loop runs:
+    //
+    //          <start> <end>
+    //   test:  FOR_TEST slot exit
+    //          <body>
+    //          FOR_NEXT test
+    //   exit:  FOR_EXIT slot
+    @Override
+    public Void visitForStatement(Statement.ForStatement statement) {
+        compile(statement.start);
+        compile(statement.end);
+
+        int test = chunk.size();
+        emit(OpCode.FOR_TEST, statement.bodyReadsVariable ? statement.slot : -1, 0, statement.variable, 0);
+        int exitOperand = chunk.size() - 1;
+        for(Statement bodyStatement : statement.body) {
+            bodyStatement.accept(this);
+        }
+        emit(OpCode.FOR_NEXT, test, statement.variable, 0);
+        chunk.patch(exitOperand, chunk.size());
+        emit(OpCode.FOR_EXIT, statement.slot, statement.variable, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitReadStatement(Statement.ReadStatement statement) {
+        int opCode = statement.valueType == ValueType.INT ? OpCode.READ_INTEGER : OpCode.READ_STRING;
+        emit(opCode, statement.slot, statement.keyword, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        compile(expression.expression);
+
+        switch(expression.operator.type) {
+            case NOT:
+                emit(OpCode.NOT, expression.operator, 0);
+                return null;
+            case MINUS:
+                emit(OpCode.NEGATE, expression.operator, 0);
+                return null;
+        }
+
+        // Same as the Interpreter: unknown operators evaluate to null
+        emit(OpCode.POP, null, -1);
+        emit(OpCode.NIL, null, 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        compile(expression.leftExpression);
+        compile(expression.rightExpression);
+
+        Token operator = expression.operator;
+        switch(operator.type) {
+            case GREATER: emit(OpCode.GREATER, operator, -1); return null;
+            case LESS: emit(OpCode.LESS, operator, -1); return null;
+            case EQUAL: emit(OpCode.EQUAL, operator, -1); return null;
+            case MINUS: emit(OpCode.SUBTRACT, operator, -1); return null;
+            case PLUS:
+                emit(expression.type == ValueType.STRING ? OpCode.CONCAT : OpCode.ADD, operator, -1);
+                return null;
+            case SLASH: emit(OpCode.DIVIDE, operator, -1); return null;
+            case STAR: emit(OpCode.MULTIPLY, operator, -1); return null;
+        }
+
+        emit(OpCode.POP, null, -1);
+        emit(OpCode.POP, null, -1);
+        emit(OpCode.NIL, null, 1);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        if(expression.value == null) {
+            emit(OpCode.NIL, null, 1);
+        } else {
+            emit(OpCode.CONSTANT, chunk.addConstant(expression.value), null, 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        compile(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        emit(OpCode.GET_VARIABLE, expression.slot, expression.name, 1);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression) {
+        compile(expression.value);
+        emit(OpCode.SET_VARIABLE, expression.slot, expression.name, 0);
+        return null;
+    }
+}
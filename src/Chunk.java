@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled program: a flat array of instructions and the constant pool they
+// refer to. For every instruction that can fail at run time we also keep the
+// token it came from, so that runtime errors can report the same line as the
+// tree-walking interpreter does.
+class Chunk {
+    private int[] code = new int[64];
+    private Token[] tokens = new Token[64];
+    private int count = 0;
+
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    int variableCount = 0;
+    int maxStackSize = 0;
+
+    void write(int value, Token token) {
+        if(count == code.length) {
+            int newLength = code.length * 2;
+            code = Arrays.copyOf(code, newLength);
+            tokens = Arrays.copyOf(tokens, newLength);
+        }
+        code[count] = value;
+        tokens[count] = token;
+        count++;
+    }
+
+    // Fills in an operand that wasn't known when it was written, like the
+    // target of a forward jump
+    void patch(int offset, int value) {
+        code[offset] = value;
+    }
+
+    // Equal constants share one entry in the pool
+    int addConstant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if(index != null) return index;
+
+        constants.add(value);
+        constantIndexes.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    int[] code() {
+        return Arrays.copyOf(code, count);
+    }
+
+    Token[] tokens() {
+        return Arrays.copyOf(tokens, count);
+    }
+
+    Object[] constants() {
+        return constants.toArray();
+    }
+
+    int size() {
+        return count;
+    }
+
+    // Human readable listing of the instructions, handy when debugging the compiler
+    String disassemble() {
+        StringBuilder builder = new StringBuilder();
+        int offset = 0;
+        while(offset < count) {
+            int opCode = code[offset];
+            builder.append(String.format("%04d ", offset)).append(OpCode.name(opCode));
+            int operands = OpCode.operandCount(opCode);
+            for(int i = 1; i <= operands; i++) {
+                builder.append(" ").append(code[offset + i]);
+            }
+            if(opCode == OpCode.CONSTANT) {
+                builder.append(" '").append(constants.get(code[offset + 1])).append("'");
+            }
+            offset += 1 + operands;
+            builder.append("\n");
+        }
+        return builder.toString();
+    }
+}
@@ -1,62 +1,446 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
 
 public class CompilerMain {
-    private static final Interpreter interpreter = new Interpreter();
+    // Source files are always read as UTF-8, whatever the platform default is
+    static final Charset SOURCE_CHARSET = StandardCharsets.UTF_8;
+
+    // The options given on the command line
+    static class Options {
+        boolean useVirtualMachine = false;
+        boolean useSpecializingInterpreter = false;
+        boolean useTableLexer = false;
+        boolean compileJvm = false;
+        boolean runClass = false;
+        boolean batch = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean useCache = true;
+        Path cacheDirectory = ProgramCache.defaultDirectory();
+        long cacheBytes = 64L * 1024 * 1024;
+        boolean optimize = true;
+        boolean precompute = true;
+        boolean dumpOptimized = false;
+        boolean debugTokens = false;
+        boolean profile = false;
+        boolean profileJfr = false;
+        long maxSteps = 0;
+        long timeoutMillis = 0;
+        Path outputFile = null;
+        Path inputFile = null;
+        OutputSink.FlushPolicy flushPolicy = OutputSink.FlushPolicy.ON_EXIT;
+        int flushBytes = 0;
+        boolean serve = false;
+        boolean client = false;
+        Path socketPath = ScriptServer.defaultSocket();
+        int port = 0;
+
+        // Returns false if the argument is not an option. An option with a
+        // value that isn't valid throws an IllegalArgumentException with a
+        // message for the user.
+        boolean parse(String arg) {
+            if(arg.equals("--vm")) {
+                useVirtualMachine = true;
+            } else if(arg.equals("--specialize")) {
+                useSpecializingInterpreter = true;
+            } else if(arg.equals("--table-lexer")) {
+                useTableLexer = true;
+            } else if(arg.equals("--compile-jvm")) {
+                compileJvm = true;
+            } else if(arg.equals("--run-class")) {
+                runClass = true;
+            } else if(arg.equals("--batch")) {
+                batch = true;
+            } else if(arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if(arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if(arg.equals("--no-precompute")) {
+                precompute = false;
+            } else if(arg.equals("--dump-optimized")) {
+                dumpOptimized = true;
+            } else if(arg.equals("--no-cache")) {
+                useCache = false;
+            } else if(arg.startsWith("--cache-dir=")) {
+                cacheDirectory = Paths.get(arg.substring("--cache-dir=".length()));
+            } else if(arg.startsWith("--cache-size=")) {
+                cacheBytes = Long.parseLong(arg.substring("--cache-size=".length())) * 1024 * 1024;
+            } else if(arg.equals("--debug-tokens")) {
+                debugTokens = true;
+            } else if(arg.startsWith("--max-steps=")) {
+                maxSteps = positive(arg.substring("--max-steps=".length()));
+                if(maxSteps == 0) throw new IllegalArgumentException("--max-steps must be a number larger than 0.");
+            } else if(arg.startsWith("--timeout=")) {
+                timeoutMillis = positive(arg.substring("--timeout=".length()));
+                if(timeoutMillis == 0) throw new IllegalArgumentException("--timeout must be a number larger than 0.");
+            } else if(arg.equals("--profile")) {
+                profile = true;
+            } else if(arg.equals("--profile-jfr")) {
+                profile = true;
+                profileJfr = true;
+            } else if(arg.startsWith("--input=")) {
+                inputFile = Paths.get(arg.substring("--input=".length()));
+            } else if(arg.startsWith("--output=")) {
+                outputFile = Paths.get(arg.substring("--output=".length()));
+            } else if(arg.equals("--serve")) {
+                serve = true;
+            } else if(arg.equals("--client")) {
+                client = true;
+            } else if(arg.startsWith("--socket=")) {
+                socketPath = Paths.get(arg.substring("--socket=".length()));
+            } else if(arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if(arg.startsWith("--flush=")) {
+                String policy = arg.substring("--flush=".length());
+                if(policy.equals("exit")) {
+                    flushPolicy = OutputSink.FlushPolicy.ON_EXIT;
+                } else if(policy.equals("line")) {
+                    flushPolicy = OutputSink.FlushPolicy.ON_NEWLINE;
+                } else {
+                    long bytes = positive(policy);
+                    if(bytes == 0 || bytes > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("--flush must be exit, line or a number of bytes larger than 0.");
+                    }
+                    flushPolicy = OutputSink.FlushPolicy.EVERY_N_BYTES;
+                    flushBytes = (int)bytes;
+                }
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        // The value of a numeric option, or 0 if it isn't a number larger
+        // than 0
+        private static long positive(String value) {
+            try {
+                return Math.max(Long.parseLong(value), 0);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        boolean hasLimits() {
+            return maxSteps > 0 || timeoutMillis > 0;
+        }
+
+        // The other engines have no statements to count, a limit that is
+        // silently ignored would be worse than none
+        boolean limitsIgnored() {
+            return hasLimits() && otherEngine();
+        }
+
+        // Only the Interpreter is profiled, the other engines would print no
+        // report at all
+        boolean profileIgnored() {
+            return profile && otherEngine();
+        }
+
+        private boolean otherEngine() {
+            return useVirtualMachine || useSpecializingInterpreter || compileJvm || runClass;
+        }
+
+        // Statements run at compile time would neither be counted against the
+        // limits nor show up in the profile, so neither works with it
+        boolean precomputes() {
+            return precompute && !hasLimits() && !profile;
+        }
+    }
 
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
     public static void main(String[] args) {
         System.out.println("Interpreter started.");
 
-        if(args.length > 1) {
+        // Options start with "--", everything else is taken as the input file.
+        // --vm runs the program on the bytecode VM and --specialize on the
+        // self-specializing node tree instead of the tree-walking interpreter.
+        // --compile-jvm writes the program as a JVM class file instead of
+        // running it, and --run-class runs such a class file. --table-lexer
+        // scans the source with the TableLexer. --batch runs every script of a
+        // directory or a manifest file, on as many threads as --threads=N says.
+        // Checked programs are kept in a ProgramCache in --cache-dir=DIR, of at
+        // most --cache-size=MB megabytes, unless --no-cache is given.
+        // --dump-optimized prints the tree after the Optimizer, which
+        // --no-optimize turns off, and --debug-tokens lists the tokens.
+        // --no-precompute keeps the PartialEvaluator from running what doesn't
+        // depend on the input at compile time, and so do the limits and
+        // --profile.
+        // What the program prints goes to --output=FILE or the standard
+        // output, flushed as --flush=exit|line|N says, and read statements
+        // read from --input=FILE or the standard input. --profile prints the
+        // lines the Interpreter spent the most time on, and --profile-jfr
+        // also emits a JFR event for every statement. --max-steps=N and
+        // --timeout=MS stop scripts that run for too long. --serve keeps
+        // running and runs the scripts sent to it by --client, over the Unix
+        // domain socket --socket=PATH or the loopback TCP port --port=N.
+        Options options = new Options();
+        List<String> files = new ArrayList<>();
+        for(String arg : args) {
+            try {
+                if(!options.parse(arg)) {
+                    files.add(arg);
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+        }
+
+        Diagnostics diagnostics = new Diagnostics(System.err);
+        if(files.size() > 1) {
             System.out.println("Only one argument should be given.");
-        } else if(args.length == 1) {
+        } else if(options.limitsIgnored()) {
+            System.out.println("Step and time limits only work with the default interpreter.");
+        } else if(options.profileIgnored()) {
+            System.out.println("--profile only works with the default interpreter.");
+        } else if(options.serve) {
+            try {
+                new ScriptServer(ScriptServer.address(options), options).serve();
+            } catch (IOException e) {
+                System.out.println("Unable to start the server: " + e.getMessage());
+            }
+        } else if(files.size() == 1 && options.client) {
+            runOnServer(files.get(0), args, options);
+        } else if(files.size() == 1 && options.batch) {
+            try {
+                new BatchRunner(options, options.threads).run(Paths.get(files.get(0)), System.out);
+            } catch (Exception e) {
+                System.out.println("Unable to read scripts from: " + files.get(0));
+            }
+        } else if(files.size() == 1 && options.runClass) {
+            try {
+                OutputSink out = openOutput(options);
+                InputSource in = openInput(options, out);
                 try {
-                    byte[] fileAsBytes = Files.readAllBytes(Paths.get(args[0])); //Paths.get("../doc/test.txt"));
-
-                    Lexer lexer = new Lexer(new String(fileAsBytes, Charset.defaultCharset()));
-                    List<Token> tokens = lexer.scanFileForTokens();
-
-                    Parser parser = new Parser(tokens);
-                    List<Statement> statements = parser.parseTokens();
+                    JvmCompiler.runClassFile(Paths.get(files.get(0)), out, in, diagnostics);
+                } finally {
+                    closeInput(in, options);
+                    closeOutput(out, options);
+                }
+            } catch (Exception e) {
+                System.out.println("Unable to run class file: " + files.get(0));
+            }
+        } else if(files.size() == 1) {
+                try {
+                    ByteBuffer source = map(Paths.get(files.get(0)));
 
-                    if(hadError) return;
-                    for (Token token : tokens) {
-                        System.out.println(token);
-                    }
+                    Program program = prepare(source, options, System.out, diagnostics);
+                    if(program == null) return;
                     // System.out.println(new AstPrinter().print(expression));
 
-                    interpreter.interpretExpression(statements);
+                    if(options.compileJvm) {
+                        String className = JvmCompiler.classNameFor(files.get(0));
+                        byte[] classFile = new JvmCompiler(className, program.variableCount).compile(program.statements);
+                        Files.write(Paths.get(className + ".class"), classFile);
+                        System.out.println("Wrote " + className + ".class");
+                    } else {
+                        OutputSink out = openOutput(options);
+                        InputSource in = openInput(options, out);
+                        try {
+                            execute(program, options, out, in, diagnostics);
+                        } finally {
+                            closeInput(in, options);
+                            closeOutput(out, options);
+                        }
+                    }
                 } catch (Exception e) {
-                    System.out.println("Unable to read file: " + args[0]);
+                    System.out.println("Unable to read file: " + files.get(0));
                 }
         } else {
             System.out.println("Give a filepath as an argument.");
         }
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    // The client does what main() would, only the script runs in the server.
+    // Input and output files are read and written here, so the paths are
+    // relative to where the client was started. The options of the run are
+    // sent to the server, the others are the server's own.
+    private static void runOnServer(String file, String[] args, Options options) {
+        List<String> arguments = new ArrayList<>();
+        for(String arg : args) {
+            if(!arg.startsWith("--") || arg.equals("--client") || arg.startsWith("--socket=")
+                    || arg.startsWith("--port=") || arg.startsWith("--input=") || arg.startsWith("--output=")) {
+                continue;
+            }
+            if(!ScriptServer.isRunOption(arg)) {
+                System.out.println(arg + " can't be used with --client.");
+                return;
+            }
+            arguments.add(arg);
+        }
+        try {
+            byte[] source = Files.readAllBytes(Paths.get(file));
+            InputStream in = options.inputFile != null ? Files.newInputStream(options.inputFile) : System.in;
+            OutputStream out = options.outputFile != null ? Files.newOutputStream(options.outputFile) : System.out;
+            try {
+                new ScriptClient(ScriptServer.address(options)).run(source, arguments, in, out, System.err);
+            } finally {
+                if(options.inputFile != null) in.close();
+                if(options.outputFile != null) out.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to run " + file + " on the server: " + e.getMessage());
+        }
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error " + where + ": " + message);
-        hadError = true;
+    private static OutputSink openOutput(Options options) throws IOException {
+        if(options.outputFile != null) {
+            return OutputSink.toFile(options.outputFile, options.flushPolicy, options.flushBytes);
+        }
+        return OutputSink.toStream(System.out, options.flushPolicy, options.flushBytes);
     }
 
-    static void error(Token token, String message) {
-        if(token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+    // A file is closed, the standard output only flushed
+    private static void closeOutput(OutputSink out, Options options) {
+        if(options.outputFile != null) {
+            out.close();
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            out.flush();
         }
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    // The standard input may be a user typing, so the output is flushed
+    // whenever the program waits for it
+    private static InputSource openInput(Options options, OutputSink out) throws IOException {
+        if(options.inputFile != null) return InputSource.fromFile(options.inputFile);
+        InputSource in = InputSource.fromStream(System.in);
+        in.tie(out);
+        return in;
+    }
+
+    private static void closeInput(InputSource in, Options options) {
+        if(options.inputFile != null) in.close();
+    }
+
+    // Maps a source file into memory. The mapping stays valid after the
+    // channel is closed, and the pages are read in by the OS as the lexer
+    // gets to them.
+    static ByteBuffer map(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // Runs the front end on one program. Returns null if there were errors,
+    // they have been reported to the diagnostics already.
+    static Program compile(String source, Options options, Diagnostics diagnostics) {
+        // The parser pulls the tokens from the lexer as it goes, so the token
+        // list is never built
+        TokenSource lexer = options.useTableLexer
+            ? new TableLexer(source, diagnostics)
+            : new Lexer(source, diagnostics);
+        return compile(lexer, options, diagnostics);
+    }
+
+    // The same for UTF-8 source bytes. Only the TableLexer needs them decoded.
+    static Program compile(ByteBuffer source, Options options, Diagnostics diagnostics) {
+        if(options.useTableLexer) return compile(decode(source), options, diagnostics);
+        return compile(new Utf8Lexer(source.duplicate(), diagnostics), options, diagnostics);
+    }
+
+    private static String decode(ByteBuffer source) {
+        return SOURCE_CHARSET.decode(source.duplicate()).toString();
+    }
+
+    private static Program compile(TokenSource lexer, Options options, Diagnostics diagnostics) {
+        List<Statement> statements = new Parser(lexer, diagnostics).parseTokens();
+        if(diagnostics.hadError) return null;
+
+        int variableCount = new Resolver(diagnostics).resolve(statements);
+        if(diagnostics.hadError) return null;
+
+        new TypeChecker(variableCount, diagnostics).check(statements);
+        if(diagnostics.hadError) return null;
+
+        Program program = new Program(statements, variableCount);
+        if(options.optimize) {
+            if(options.precomputes()) program = new PartialEvaluator(variableCount).evaluate(program);
+            program = new Optimizer(variableCount).optimize(program);
+        }
+        return program;
+    }
+
+    // Loads a program and prints the listings the options ask for. Returns
+    // null if there were errors.
+    static Program prepare(byte[] sourceBytes, Options options, PrintStream listing, Diagnostics diagnostics) {
+        return prepare(ByteBuffer.wrap(sourceBytes), options, listing, diagnostics);
+    }
+
+    static Program prepare(ByteBuffer source, Options options, PrintStream listing, Diagnostics diagnostics) {
+        Program program = load(source, options, diagnostics);
+        if(program == null) return null;
+
+        if(options.dumpOptimized) {
+            AstPrinter printer = new AstPrinter();
+            for(Statement statement : program.statements) {
+                listing.println(printer.print(statement));
+            }
+        }
+
+        if(options.debugTokens) {
+            // The tokens are scanned again for the listing, one at a time
+            TokenSource lexer = options.useTableLexer
+                ? new TableLexer(decode(source), diagnostics)
+                : new Utf8Lexer(source.duplicate(), diagnostics);
+            Token token;
+            do {
+                token = lexer.nextToken();
+                listing.println(token);
+            } while(token.type != TokenType.EOF);
+        }
+        return program;
+    }
+
+    // Like compile(), but takes the program from the ProgramCache when the same
+    // source has been compiled before, and stores it there otherwise
+    static Program load(byte[] sourceBytes, Options options, Diagnostics diagnostics) {
+        return load(ByteBuffer.wrap(sourceBytes), options, diagnostics);
+    }
+
+    static Program load(ByteBuffer source, Options options, Diagnostics diagnostics) {
+        if(!usesCache(source, options)) return compile(source, options, diagnostics);
+
+        ProgramCache cache = new ProgramCache(options.cacheDirectory, options.cacheBytes);
+        String key = ProgramCache.key(source, SOURCE_CHARSET, options.optimize, options.precomputes());
+        Program program = cache.load(key);
+        if(program != null) return program;
+
+        program = compile(source, options, diagnostics);
+        if(program != null) cache.store(key, program);
+        return program;
+    }
+
+    // A source too large for the cache is lexed right away instead of hashed
+    static boolean usesCache(ByteBuffer source, Options options) {
+        return options.useCache && source.remaining() <= ProgramCache.MAX_SOURCE_BYTES;
+    }
+
+    // Runs a compiled program on the engine picked by the options. A new engine
+    // is made for every program, so programs never share any state.
+    static void execute(Program program, Options options, OutputSink out, InputSource in, Diagnostics diagnostics) {
+        if(options.useVirtualMachine) {
+            new VirtualMachine(out, in, diagnostics)
+                .interpret(new BytecodeCompiler().compile(program.statements, program.variableCount));
+        } else if(options.useSpecializingInterpreter) {
+            new SpecializingInterpreter(out, in, diagnostics).interpret(program);
+        } else if(options.profile) {
+            ProfilingInterpreter interpreter = new ProfilingInterpreter(out, in,
+                new Fuel(options.maxSteps, options.timeoutMillis), diagnostics, options.profileJfr);
+            interpreter.interpretExpression(program);
+            diagnostics.info(interpreter.report());
+        } else {
+            new Interpreter(out, in, new Fuel(options.maxSteps, options.timeoutMillis), diagnostics)
+                .interpretExpression(program);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+import java.io.PrintStream;
+
+// Collects the errors of one compile and run. Every stage reports its errors
+// to the Diagnostics it was given, so several programs can be compiled and run
+// at the same time without their errors getting mixed up.
+public class Diagnostics {
+    private final PrintStream err;
+
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+    // The error that stopped the run, for callers that rethrow it
+    RuntimeError runtimeError = null;
+
+    Diagnostics(PrintStream err) {
+        this.err = err;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if(token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    // Not private, the IncrementalParser keeps the errors it is given and
+    // reports them again later
+    void report(int line, String where, String message) {
+        err.println("[line " + line + "] Error " + where + ": " + message);
+        hadError = true;
+    }
+
+    // Reports that are not errors, like the profile of a run
+    void info(String message) {
+        err.println(message);
+    }
+
+    void runtimeError(RuntimeError error) {
+        err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+        runtimeError = error;
+    }
+}
@@ -1,27 +1,71 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+// Variables live in a flat array. The Resolver has already given every
+// variable a slot number and checked that it is declared before it is used,
+// so getting and assigning a value is a plain array access.
+//
+// Integers are kept unboxed in a parallel long[], so that arithmetic on
+// variables doesn't allocate a Long for every result. A slot that holds an
+// integer is tagged with the INTEGER marker in the values array.
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    private static final Object INTEGER = new Object();
 
-    public void define(String name, Object value) {
-        values.put(name, value);
+    private Object[] values;
+    private long[] integers;
+
+    public Environment() {
+        this(16);
+    }
+
+    // With a slot for every variable of a Program, so that no slot is ever
+    // missing, not even one that is read before anything was stored in it
+    public Environment(int variableCount) {
+        values = new Object[variableCount];
+        integers = new long[variableCount];
+    }
+
+    public void define(int slot, Object value) {
+        ensureCapacity(slot);
+        assign(slot, value);
+    }
+
+    public void defineInteger(int slot, long value) {
+        ensureCapacity(slot);
+        assignInteger(slot, value);
     }
 
-    public Object get(Token name) {
-        if(values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    private void ensureCapacity(int slot) {
+        if(slot >= values.length) {
+            int newLength = Math.max(slot + 1, values.length * 2);
+            values = Arrays.copyOf(values, newLength);
+            integers = Arrays.copyOf(integers, newLength);
         }
+    }
+
+    public Object get(int slot) {
+        Object value = values[slot];
+        if(value == INTEGER) return integers[slot];
+        return value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    public boolean holdsInteger(int slot) {
+        return values[slot] == INTEGER;
     }
 
-    public void assign(Token name, Object value) {
-        if(values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+    public long getInteger(int slot) {
+        return integers[slot];
+    }
+
+    public void assign(int slot, Object value) {
+        if(value instanceof Long) {
+            assignInteger(slot, (long)value);
             return;
         }
+        values[slot] = value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    public void assignInteger(int slot, long value) {
+        values[slot] = INTEGER;
+        integers[slot] = value;
     }
 }
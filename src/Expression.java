@@ -12,6 +12,9 @@ abstract class Expression {
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    // The static type of the expression, filled in by the TypeChecker
+    ValueType type;
+
     static class Unary extends Expression {
         final Token operator;
         final Expression expression;
@@ -72,6 +75,8 @@ abstract class Expression {
 
     static class Variable extends Expression {
         final Token name;
+        // Index of the variable in the Environment, filled in by the Resolver
+        int slot = -1;
 
         Variable(Token name) {
             this.name = name;
@@ -86,6 +91,8 @@ abstract class Expression {
     static class Assign extends Expression {
         final Token name;
         final Expression value;
+        // Index of the variable in the Environment, filled in by the Resolver
+        int slot = -1;
 
         Assign(Token name, Expression value) {
             this.name = name;
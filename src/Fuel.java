@@ -0,0 +1,58 @@
+// The step and time limits of a run, for scripts that can't be trusted to
+// finish. The Interpreter calls step() before every statement and on every
+// iteration of a loop with an empty body, and the run ends with a RuntimeError
+// when it has taken more steps than allowed or has run for too long.
+//
+// step() only decrements a counter. The steps are handed out in slices, and
+// the total and the clock are checked only when a slice runs out, so the
+// limits cost almost nothing. Without limits the first slice never runs out.
+final class Fuel {
+    // How many steps are taken between two looks at the clock
+    private static final long SLICE = 4096;
+
+    // 0 means no limit
+    private final long maxSteps;
+    private final long timeoutMillis;
+
+    private long slice = 0;
+    // The steps of the slices handed out before the current one
+    private long used = 0;
+    private long granted = 0;
+    private long deadline = 0;
+
+    Fuel(long maxSteps, long timeoutMillis) {
+        this.maxSteps = maxSteps;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    static Fuel unlimited() {
+        return new Fuel(0, 0);
+    }
+
+    // Called when a run starts, the time limit counts from here
+    void start() {
+        slice = 0;
+        used = 0;
+        granted = 0;
+        deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000 : 0;
+    }
+
+    void step(int line) {
+        if(--slice < 0) refill(line);
+    }
+
+    private void refill(int line) {
+        used += granted;
+        if(deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new RuntimeError(line, "Time limit of " + timeoutMillis + " ms exceeded.");
+        }
+        if(maxSteps == 0) {
+            granted = deadline != 0 ? SLICE : Long.MAX_VALUE;
+        } else {
+            if(used >= maxSteps) throw new RuntimeError(line, "Step limit of " + maxSteps + " exceeded.");
+            granted = Math.min(SLICE, maxSteps - used);
+        }
+        // The step that ran out of fuel is taken from the new slice
+        slice = granted - 1;
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps a program lexed and parsed while it is being edited, for editors and
+// file watchers. After an edit only the statements the edit touched are
+// scanned and parsed again, every other Statement node is kept as it was.
+//
+// The source is kept as a list of segments, one for every top-level
+// statement: its text up to and including the ';' that ends it, its tokens,
+// its node and its errors. MiniPL statements always end with a ';', and a
+// statement is parsed without looking past it, so the text of the segments
+// around an edit can be scanned and parsed on its own, from the start of the
+// first segment the edit touches to the end of the last. If the new text
+// doesn't end with a complete statement, for example because the edit
+// removed a ';' or opened a string, the next segment is taken in too, until
+// it does or the end of the file is reached.
+//
+// The tokens and nodes carry line numbers, which an edit above them that adds
+// or removes lines makes wrong. They are moved when statements() is asked for
+// the tree, not on every edit, so an edit costs about the same no matter how
+// much of the file comes after it.
+public class IncrementalParser {
+    private static final Token[] NO_TOKENS = new Token[0];
+
+    private static class Segment {
+        final String text;
+        final int newlines;
+        // The tokens of the statement, the nodes refer to these
+        final Token[] tokens;
+        // Null if the statement had a syntax error
+        final Statement statement;
+        // The lines of the errors are relative to the first line of the text
+        final List<Report> errors;
+        // The statement ended with its own ';'. One that the parser ended by
+        // skipping to the next keyword after an error, or at the end of the
+        // file, depends on the text after it and is parsed again with it.
+        final boolean closed;
+        // The line the text starts on, when the tokens were last moved
+        int line;
+
+        Segment(String text, Token[] tokens, Statement statement, List<Report> errors, boolean closed,
+                int line) {
+            this.text = text;
+            this.newlines = countNewlines(text);
+            this.tokens = tokens;
+            this.statement = statement;
+            this.errors = errors;
+            this.closed = closed;
+            this.line = line;
+        }
+
+        // The text after the last statement of the file, if anything
+        boolean isTail() {
+            return tokens.length == 0;
+        }
+
+        void moveTo(int firstLine) {
+            int lines = firstLine - line;
+            for(Token token : tokens) {
+                token.line += lines;
+            }
+            if(statement != null) moveStatement(statement, lines);
+            line = firstLine;
+        }
+
+        private static void moveStatement(Statement statement, int lines) {
+            statement.line += lines;
+            if(statement instanceof Statement.ForStatement) {
+                for(Statement bodyStatement : ((Statement.ForStatement)statement).body) {
+                    if(bodyStatement != null) moveStatement(bodyStatement, lines);
+                }
+            }
+        }
+    }
+
+    private static class Report {
+        // Where in the scanned text the error was found, for the Lexer's errors
+        final int position;
+        final int line;
+        final String where;
+        final String message;
+
+        Report(int position, int line, String where, String message) {
+            this.position = position;
+            this.line = line;
+            this.where = where;
+            this.message = message;
+        }
+    }
+
+    // Keeps the errors instead of printing them. While scanning, the Lexer
+    // tells where each error is, so that it can be given to its segment.
+    private static class Collector extends Diagnostics {
+        final List<Report> errors = new ArrayList<>();
+        Lexer lexer;
+        // The parser ran out of tokens in the middle of a statement
+        boolean reachedEnd = false;
+
+        Collector() {
+            super(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        @Override
+        void error(Token token, String message) {
+            if(token.type == TokenType.EOF) reachedEnd = true;
+            super.error(token, message);
+        }
+
+        @Override
+        void report(int line, String where, String message) {
+            errors.add(new Report(lexer != null ? lexer.position() : 0, line, where, message));
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+    private int length = 0;
+    // The segment the last edit started in, with the offset and the line it
+    // starts at. Edits tend to be close to each other, so the next edit is
+    // looked for from here instead of from the start of the file.
+    private int cursor = 0;
+    private int cursorOffset = 0;
+    private int cursorLine = 1;
+    // How many segments the last edit scanned and parsed again
+    private int reparsed = 0;
+
+    IncrementalParser(String source) {
+        segments.add(new Segment("", NO_TOKENS, null, List.of(), true, 1));
+        edit(0, 0, source);
+    }
+
+    // Replaces removed characters starting at offset with the inserted text
+    public void edit(int offset, int removed, String inserted) {
+        if(offset < 0 || removed < 0 || offset + removed > length) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " outside of " + length);
+        }
+
+        // The segments the edit starts and ends in, with the offset and the
+        // line the first one starts at. An edit right at the end of a
+        // segment belongs to the next one, the ';' stays where it was.
+        int first = cursor;
+        int firstOffset = cursorOffset;
+        int firstLine = cursorLine;
+        while(firstOffset > offset) {
+            first--;
+            firstOffset -= segments.get(first).text.length();
+            firstLine -= segments.get(first).newlines;
+        }
+        while(first < segments.size() - 1 && firstOffset + segments.get(first).text.length() <= offset) {
+            firstOffset += segments.get(first).text.length();
+            firstLine += segments.get(first).newlines;
+            first++;
+        }
+        while(first > 0 && !segments.get(first - 1).closed) {
+            first--;
+            firstOffset -= segments.get(first).text.length();
+            firstLine -= segments.get(first).newlines;
+        }
+        int last = first;
+        int lastEnd = firstOffset + segments.get(first).text.length();
+        while(last < segments.size() - 1 && lastEnd < offset + removed) {
+            last++;
+            lastEnd += segments.get(last).text.length();
+        }
+
+        StringBuilder text = new StringBuilder();
+        for(int i = first; i <= last; i++) {
+            text.append(segments.get(i).text);
+        }
+        text.replace(offset - firstOffset, offset - firstOffset + removed, inserted);
+        length += inserted.length() - removed;
+
+        List<Segment> parsed;
+        while(true) {
+            boolean toEnd = last == segments.size() - 1;
+            parsed = parse(text.toString(), firstLine, toEnd);
+            if(parsed != null) break;
+            last++;
+            text.append(segments.get(last).text);
+        }
+
+        if(parsed.size() == last - first + 1) {
+            // Usually one statement for one, then nothing has to be moved
+            for(int i = 0; i < parsed.size(); i++) {
+                segments.set(first + i, parsed.get(i));
+            }
+        } else {
+            segments.subList(first, last + 1).clear();
+            segments.addAll(first, parsed);
+        }
+        reparsed = parsed.size();
+        cursor = first;
+        cursorOffset = firstOffset;
+        cursorLine = firstLine;
+    }
+
+    // Scans and parses the text of consecutive segments. Returns null if the
+    // text doesn't end with a complete statement and isn't the end of the
+    // file, then more of the file has to be parsed with it.
+    private static List<Segment> parse(String text, int firstLine, boolean toEnd) {
+        Collector lexerErrors = new Collector();
+        Lexer lexer = new Lexer(text, firstLine, lexerErrors);
+        lexerErrors.lexer = lexer;
+        List<Token> tokens = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        Token token;
+        do {
+            token = lexer.nextToken();
+            tokens.add(token);
+            ends.add(lexer.position());
+        } while(token.type != TokenType.EOF);
+
+        TokenStream.FromList stream = new TokenStream.FromList(tokens);
+        Collector parserErrors = new Collector();
+        Parser parser = new Parser(stream, parserErrors);
+        List<Segment> parsed = new ArrayList<>();
+        int start = 0;
+        int line = firstLine;
+        int lexerError = 0;
+        while(parser.hasMoreTokens()) {
+            int firstToken = stream.position();
+            parserErrors.reachedEnd = false;
+            Statement statement = parser.parseDeclaration();
+            int lastToken = stream.position() - 1;
+            int end = ends.get(lastToken);
+            String segmentText = text.substring(start, end);
+
+            List<Report> errors = new ArrayList<>();
+            while(lexerError < lexerErrors.errors.size() && lexerErrors.errors.get(lexerError).position <= end) {
+                errors.add(relative(lexerErrors.errors.get(lexerError++), line));
+            }
+            for(Report error : parserErrors.errors) {
+                errors.add(relative(error, line));
+            }
+            parserErrors.errors.clear();
+
+            Token[] statementTokens = tokens.subList(firstToken, lastToken + 1).toArray(NO_TOKENS);
+            boolean closed = tokens.get(lastToken).type == TokenType.SEMICOLON && !parserErrors.reachedEnd;
+            parsed.add(new Segment(segmentText, statementTokens, statement, errors, closed, line));
+            start = end;
+            line += parsed.get(parsed.size() - 1).newlines;
+        }
+
+        if(!toEnd) {
+            // The next segment has to start right after a ';' of this text
+            boolean complete = start == text.length() && !parsed.isEmpty() && parsed.get(parsed.size() - 1).closed;
+            return complete ? parsed : null;
+        }
+
+        List<Report> errors = new ArrayList<>();
+        while(lexerError < lexerErrors.errors.size()) {
+            errors.add(relative(lexerErrors.errors.get(lexerError++), line));
+        }
+        parsed.add(new Segment(text.substring(start), NO_TOKENS, null, errors, true, line));
+        return parsed;
+    }
+
+    private static Report relative(Report error, int firstLine) {
+        return new Report(error.position, error.line - firstLine, error.where, error.message);
+    }
+
+    // The top-level statements, with the same nodes as before the last edit
+    // for the statements it didn't touch. Like the list of parseTokens(), a
+    // statement with a syntax error is null.
+    public List<Statement> statements() {
+        List<Statement> statements = new ArrayList<>(segments.size());
+        int line = 1;
+        for(Segment segment : segments) {
+            if(segment.line != line) segment.moveTo(line);
+            if(!segment.isTail()) statements.add(segment.statement);
+            line += segment.newlines;
+        }
+        return statements;
+    }
+
+    public boolean hadError() {
+        for(Segment segment : segments) {
+            if(!segment.errors.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // Reports the errors of the whole file again, at the lines they are on now
+    public void report(Diagnostics diagnostics) {
+        int line = 1;
+        for(Segment segment : segments) {
+            for(Report error : segment.errors) {
+                diagnostics.report(line + error.line, error.where, error.message);
+            }
+            line += segment.newlines;
+        }
+    }
+
+    public String source() {
+        StringBuilder source = new StringBuilder(length);
+        for(Segment segment : segments) {
+            source.append(segment.text);
+        }
+        return source.toString();
+    }
+
+    int reparsedStatements() {
+        return reparsed;
+    }
+
+    private static int countNewlines(String text) {
+        int count = 0;
+        for(int i = 0; i < text.length(); i++) {
+            if(text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+}
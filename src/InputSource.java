@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Where the read statements of a program read from. The input is read from the
+// channel in large blocks into a byte buffer, and integers are parsed straight
+// from the bytes, so reading a number needs no Scanner, no line String and no
+// allocation at all. A string is read as one whitespace separated word.
+//
+// The counterpart of the OutputSink. When the input is interactive, the output
+// can be tied to it: it is then flushed every time the program has to wait for
+// more input, so a prompt printed before a read is seen before the read blocks.
+public class InputSource {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // A negative number below this overflows when multiplied by 10
+    private static final long MULTIPLY_LIMIT = Long.MIN_VALUE / 10;
+
+    private final ReadableByteChannel channel;
+    private final Charset charset;
+    private final byte[] buffer;
+    private final ByteBuffer wrapped;
+    private int position = 0;
+    private int limit = 0;
+    private boolean atEnd = false;
+    // Flushed before waiting for input, or null
+    private OutputSink tied;
+    // The bytes of the word being read, a word can continue past the buffer
+    private byte[] word = new byte[64];
+
+    InputSource(ReadableByteChannel channel, int bufferSize, Charset charset) {
+        this.channel = channel;
+        this.charset = charset;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+        this.wrapped = ByteBuffer.wrap(buffer);
+    }
+
+    static InputSource fromStream(InputStream in) {
+        return new InputSource(Channels.newChannel(in), DEFAULT_BUFFER_SIZE, Charset.defaultCharset());
+    }
+
+    // Reads straight from a FileChannel, without going through a stream
+    static InputSource fromFile(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        return new InputSource(channel, DEFAULT_BUFFER_SIZE, Charset.defaultCharset());
+    }
+
+    // Reads from a character stream, like the reader of a ScriptContext. The
+    // characters are encoded as UTF-8 for the byte level parsing.
+    static InputSource fromReader(Reader reader) {
+        return new InputSource(new ReaderChannel(reader, StandardCharsets.UTF_8),
+            DEFAULT_BUFFER_SIZE, StandardCharsets.UTF_8);
+    }
+
+    // For programs that have no input, every read fails at the end of input
+    static InputSource empty() {
+        return fromStream(InputStream.nullInputStream());
+    }
+
+    void tie(OutputSink out) {
+        this.tied = out;
+    }
+
+    // Reads an integer with an optional sign. The token is the read statement,
+    // for the runtime errors.
+    public long readInteger(Token token) {
+        int c = skipWhitespace();
+        if(c < 0) throw new RuntimeError(token, "Unexpected end of input.");
+
+        boolean negative = c == '-';
+        if(c == '-' || c == '+') {
+            position++;
+            c = peek();
+        }
+        if(c < '0' || c > '9') throw new RuntimeError(token, "Expected an integer.");
+
+        // The digits are accumulated as a negative number, like Long.parseLong()
+        // does, so that the smallest long can be read too
+        long result = 0;
+        final byte[] buffer = this.buffer;
+        while(true) {
+            // The digits in the buffer are scanned with local variables, the
+            // fields are only updated when the buffer runs out
+            int current = position;
+            int end = limit;
+            while(current < end) {
+                c = buffer[current] & 0xff;
+                if(c < '0' || c > '9') break;
+                int digit = c - '0';
+                if(result < MULTIPLY_LIMIT) throw new RuntimeError(token, "Integer is too large.");
+                result *= 10;
+                if(result < Long.MIN_VALUE + digit) throw new RuntimeError(token, "Integer is too large.");
+                result -= digit;
+                current++;
+            }
+            position = current;
+            if(current < end) break;
+            c = fill();
+            if(c < '0' || c > '9') break;
+        }
+
+        if(c >= 0 && !isWhitespace(c)) throw new RuntimeError(token, "Expected an integer.");
+        if(negative) return result;
+        if(result == Long.MIN_VALUE) throw new RuntimeError(token, "Integer is too large.");
+        return -result;
+    }
+
+    // Reads the next whitespace separated word
+    public String readWord(Token token) {
+        int c = skipWhitespace();
+        if(c < 0) throw new RuntimeError(token, "Unexpected end of input.");
+
+        int length = 0;
+        boolean ascii = true;
+        do {
+            if(length == word.length) word = Arrays.copyOf(word, length * 2);
+            word[length++] = (byte)c;
+            ascii &= c < 0x80;
+            position++;
+            c = peek();
+        } while(c >= 0 && !isWhitespace(c));
+
+        // ASCII bytes need no decoding, the String keeps them as they are
+        return new String(word, 0, length, ascii ? StandardCharsets.ISO_8859_1 : charset);
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Encodes the characters of a Reader into the bytes read from it. Only
+    // blocks for as many characters as the reader has ready, so an interactive
+    // reader works line by line.
+    private static class ReaderChannel implements ReadableByteChannel {
+        private final Reader reader;
+        private final CharsetEncoder encoder;
+        private final CharBuffer chars = CharBuffer.allocate(8 * 1024).flip();
+        private boolean atEnd = false;
+        private boolean open = true;
+
+        ReaderChannel(Reader reader, Charset charset) {
+            this.reader = reader;
+            this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public int read(ByteBuffer bytes) throws IOException {
+            int start = bytes.position();
+            while(true) {
+                CoderResult result = encoder.encode(chars, bytes, atEnd);
+                if(result.isOverflow() || bytes.position() > start) break;
+                if(atEnd) return -1;
+                // More characters are needed. Half of a surrogate pair is
+                // kept until the other half has been read.
+                chars.compact();
+                int count = reader.read(chars);
+                chars.flip();
+                if(count < 0) atEnd = true;
+            }
+            return bytes.position() - start;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            reader.close();
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    // Returns the first byte that is not whitespace without consuming it, or
+    // -1 at the end of the input
+    private int skipWhitespace() {
+        int c = peek();
+        while(c >= 0 && isWhitespace(c)) {
+            position++;
+            c = peek();
+        }
+        return c;
+    }
+
+    // The next byte as 0..255, or -1 at the end of the input
+    private int peek() {
+        if(position < limit) return buffer[position] & 0xff;
+        return fill();
+    }
+
+    private int fill() {
+        if(atEnd) return -1;
+        if(tied != null) tied.flush();
+        try {
+            int count;
+            do {
+                wrapped.clear();
+                count = channel.read(wrapped);
+            } while(count == 0);
+            if(count < 0) {
+                atEnd = true;
+                return -1;
+            }
+            position = 0;
+            limit = count;
+            return buffer[0] & 0xff;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -3,15 +3,35 @@ import java.util.List;
 public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void> {
 
     private Environment environment = new Environment();
+    private final OutputSink out;
+    private final InputSource in;
+    private final Fuel fuel;
+    private final Diagnostics diagnostics;
+
+    Interpreter(OutputSink out, InputSource in, Fuel fuel, Diagnostics diagnostics) {
+        this.out = out;
+        this.in = in;
+        this.fuel = fuel;
+        this.diagnostics = diagnostics;
+    }
+
+    public void interpretExpression(Program program) {
+        environment = new Environment(program.variableCount);
+        interpretExpression(program.statements);
+    }
 
     public void interpretExpression(List<Statement> statements) {
+        fuel.start();
         try {
             for(Statement statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            CompilerMain.runtimeError(error);
+            // The output so far comes before the error message
+            out.flush();
+            diagnostics.runtimeError(error);
         }
+        out.flush();
         // try {
         //     Object value = evaluate(expression);
         //     System.out.println(stringify(value));
@@ -32,77 +52,114 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Object visitUnaryExpression(Expression.Unary expression) {
-        Object right = evaluate(expression.expression);
-
         switch(expression.operator.type) {
             case NOT:
-                return !isTruthy(right);
+                return !evaluateBoolean(expression.expression);
             case MINUS:
-                checkNumberOperand(expression.operator, right);
-                return -(double)right;
+                return evaluateInteger(expression);
         }
 
         return null;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if(operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
-    }
-
-    private void checkNumberOperand(Token operator, Object left, Object right) {
-        if(left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operands must be numbers.");
-    }
-
-    private boolean isTruthy(Object object) {
-        if (object == null) return false;
-        if (object instanceof Boolean) return (boolean)object;
-        return true;
-    }
-
     @Override
     public Object visitBinaryExpression(Expression.Binary expression) {
-        Object left = evaluate(expression.leftExpression);
-        Object right = evaluate(expression.rightExpression);
-
-        // We check for each operation that the operands actually are numbers
-        // and the user will be informed if there is an error without crashing
-        // the interpreter.
         switch(expression.operator.type) {
-            // Comparisons
+            // Comparisons, the results are the cached Boolean instances
             case GREATER:
-                checkNumberOperand(expression.operator, left, right);
-                return (double)left > (double)right;
             case LESS:
-                checkNumberOperand(expression.operator, left, right);
-                return (double)left < (double)right;
             case EQUAL:
-                return isEqual(left, right);
-            // Arithmetic operations
-            case MINUS:
-                checkNumberOperand(expression.operator, left, right);
-                return (double)left - (double)right;
+                return evaluateBoolean(expression);
+            // Arithmetic operations, and concatenation of strings
             case PLUS:
-                checkNumberOperand(expression.operator, left, right);
-                return (double)left + (double)right; // Assuming no concatenation of string with '+'
+                if(expression.type == ValueType.STRING) {
+                    return Rope.concat((CharSequence)evaluate(expression.leftExpression),
+                        (CharSequence)evaluate(expression.rightExpression));
+                }
+                return evaluateInteger(expression);
+            case MINUS:
             case SLASH:
-                checkNumberOperand(expression.operator, left, right);
-                return (double)left / (double)right;
             case STAR:
-                checkNumberOperand(expression.operator, left, right);
-                return (double)left * (double)right;
-
+                return evaluateInteger(expression);
         }
 
         return null;
     }
 
+    // The TypeChecker has given every expression its static type, so the
+    // operands never need to be checked at run time. Expressions of type int
+    // are evaluated with evaluateInteger() and bool expressions with
+    // evaluateBoolean(), which work on primitive values and never box the
+    // intermediate results. Only the final value is boxed if someone needs it
+    // as an Object.
+    // Integers are 64-bit two's complement: overflow wraps around and division
+    // truncates towards zero.
+    private long evaluateInteger(Expression expression) {
+        if(expression instanceof Expression.Variable) {
+            return environment.getInteger(((Expression.Variable)expression).slot);
+        }
+        if(expression instanceof Expression.Literal) {
+            return (long)((Expression.Literal)expression).value;
+        }
+        if(expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary)expression;
+            long left = evaluateInteger(binary.leftExpression);
+            long right = evaluateInteger(binary.rightExpression);
+            switch(binary.operator.type) {
+                case MINUS: return left - right;
+                case PLUS: return left + right;
+                case STAR: return left * right;
+                case SLASH:
+                    if(right == 0) throw new RuntimeError(binary.operator, "Division by zero.");
+                    return left / right;
+            }
+        }
+        if(expression instanceof Expression.Unary) {
+            return -evaluateInteger(((Expression.Unary)expression).expression);
+        }
+        if(expression instanceof Expression.Grouping) {
+            return evaluateInteger(((Expression.Grouping)expression).expression);
+        }
+        Expression.Assign assign = (Expression.Assign)expression;
+        assign(assign);
+        return environment.getInteger(assign.slot);
+    }
 
+    private boolean evaluateBoolean(Expression expression) {
+        if(expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary)expression;
+            switch(binary.operator.type) {
+                case GREATER:
+                    return evaluateInteger(binary.leftExpression) > evaluateInteger(binary.rightExpression);
+                case LESS:
+                    return evaluateInteger(binary.leftExpression) < evaluateInteger(binary.rightExpression);
+                case EQUAL:
+                    switch(binary.leftExpression.type) {
+                        case INT:
+                            return evaluateInteger(binary.leftExpression) == evaluateInteger(binary.rightExpression);
+                        case BOOL:
+                            return evaluateBoolean(binary.leftExpression) == evaluateBoolean(binary.rightExpression);
+                        default:
+                            return isEqual(evaluate(binary.leftExpression), evaluate(binary.rightExpression));
+                    }
+            }
+        }
+        if(expression instanceof Expression.Unary) {
+            return !evaluateBoolean(((Expression.Unary)expression).expression);
+        }
+        if(expression instanceof Expression.Grouping) {
+            return evaluateBoolean(((Expression.Grouping)expression).expression);
+        }
+        return (boolean)evaluate(expression);
+    }
 
-    private boolean isEqual(Object a, Object b) {
-        if(a == null && b == null) return true;
-        if(a == null) return false;
+    static boolean isEqual(Object a, Object b) {
+        if(a == b) return true;
+        if(a == null || b == null) return false;
+        // Strings are Strings or Ropes, they are equal if their characters are
+        if(a instanceof CharSequence && b instanceof CharSequence) {
+            return Rope.contentEquals((CharSequence)a, (CharSequence)b);
+        }
 
         return a.equals(b);
     }
@@ -111,57 +168,113 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return expression.accept(this);
     }
 
-    private void execute(Statement statement) {
+    // Overridden by the ProfilingInterpreter. While that class is not loaded
+    // the JIT sees a single implementation and calls this directly.
+    void execute(Statement statement) {
+        fuel.step(statement.line);
         statement.accept(this);
     }
 
-    private String stringify(Object object) {
+    static CharSequence stringify(Object object) {
         if(object == null) return "null";
-
-        if(object instanceof Double) {
-            String text = object.toString();
-            if(text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
+        if(object instanceof CharSequence) return (CharSequence)object;
 
         return object.toString();
     }
 
     @Override
     public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        // The value of an assignment statement is not needed, so we don't box it
+        if(statement.expression instanceof Expression.Assign) {
+            assign((Expression.Assign)statement.expression);
+            return null;
+        }
         evaluate(statement.expression);
         return null;
     }
 
     @Override
     public Void visitPrintStatement(Statement.PrintStatement statement) {
+        if(statement.expression.type == ValueType.INT) {
+            out.println(evaluateInteger(statement.expression));
+            return null;
+        }
         Object value = evaluate(statement.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
+        return null;
+    }
+
+    // The counter is kept in a local long and is only stored in the variable
+    // when the body reads it, and once more after the loop
+    @Override
+    public Void visitForStatement(Statement.ForStatement statement) {
+        long counter = evaluateInteger(statement.start);
+        long end = evaluateInteger(statement.end);
+        Statement[] body = statement.body;
+        int slot = statement.slot;
+        boolean storeEveryIteration = statement.bodyReadsVariable;
+
+        // The statements of the body are steps already, only an empty body
+        // needs a step on the back-edge so that it can't loop forever
+        boolean stepBackEdge = body.length == 0;
+
+        while(counter <= end) {
+            if(stepBackEdge) fuel.step(statement.line);
+            if(storeEveryIteration) environment.assignInteger(slot, counter);
+            for(Statement bodyStatement : body) {
+                execute(bodyStatement);
+            }
+            counter++;
+            // The end was the largest long, stop instead of wrapping around
+            if(counter == Long.MIN_VALUE) break;
+        }
+        environment.assignInteger(slot, counter);
+        return null;
+    }
+
+    @Override
+    public Void visitReadStatement(Statement.ReadStatement statement) {
+        if(statement.valueType == ValueType.INT) {
+            environment.assignInteger(statement.slot, in.readInteger(statement.keyword));
+        } else {
+            environment.assign(statement.slot, in.readWord(statement.keyword));
+        }
         return null;
     }
 
     @Override
     public Void visitVariableStatement(Statement.VariableStatement statement) {
-        Object value = null;
+        if(statement.valueType == ValueType.INT) {
+            long value = statement.initializer != null ? evaluateInteger(statement.initializer) : 0;
+            environment.defineInteger(statement.slot, value);
+            return null;
+        }
+
+        Object value = statement.valueType.defaultValue();
         if(statement.initializer != null) {
             value = evaluate(statement.initializer);
         }
 
-        environment.define(statement.name.lexeme, value);
+        environment.define(statement.slot, value);
         return null;
     }
 
     @Override
     public Object visitVariableExpression(Expression.Variable expression) {
-        return environment.get(expression.name);
+        return environment.get(expression.slot);
     }
 
     @Override
     public Object visitAssignExpression(Expression.Assign expression) {
-        Object value = evaluate(expression.value);
-        environment.assign(expression.name, value);
-        return value;
+        assign(expression);
+        return environment.get(expression.slot);
+    }
+
+    private void assign(Expression.Assign expression) {
+        if(expression.type == ValueType.INT) {
+            environment.assignInteger(expression.slot, evaluateInteger(expression.value));
+            return;
+        }
+        environment.assign(expression.slot, evaluate(expression.value));
     }
 }
@@ -0,0 +1,333 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+// Compiles a checked MiniPL program ahead of time into a JVM class file, so
+// that HotSpot can JIT the program itself instead of the Interpreter.
+//
+// The program is first translated into Java source: every MiniPL variable
+// becomes a static field with the matching primitive type (long, boolean or
+// CharSequence, for Strings and Ropes) and the statements become plain Java
+// statements. Printing, reading and runtime errors go through MiniPLRuntime,
+// so the output is the same as when the program is interpreted. The source is
+// then compiled in memory with the system Java compiler, which means a JDK is
+// needed at compile time, but the resulting class only needs MiniPLRuntime to
+// run.
+public class JvmCompiler implements Expression.Visitor<String>, Statement.Visitor<Void> {
+    // The JVM limits the size of a method, so the statements are split into
+    // several methods that run() calls one after another.
+    private static final int STATEMENTS_PER_METHOD = 200;
+
+    private final String className;
+    private final ValueType[] variableTypes;
+    private StringBuilder body = new StringBuilder();
+    // How deep in for loops the generated code is, for the names of the
+    // counter variables and the indentation
+    private int loopDepth = 0;
+
+    JvmCompiler(String className, int variableCount) {
+        this.className = className;
+        this.variableTypes = new ValueType[variableCount];
+    }
+
+    // Turns a file name into a valid class name, "test.txt" becomes "MiniPL_test"
+    static String classNameFor(String fileName) {
+        String name = fileName;
+        int separator = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        name = name.substring(separator + 1);
+        if(name.indexOf('.') > 0) name = name.substring(0, name.indexOf('.'));
+
+        StringBuilder builder = new StringBuilder("MiniPL_");
+        for(char character : name.toCharArray()) {
+            builder.append(Character.isJavaIdentifierPart(character) ? character : '_');
+        }
+        return builder.toString();
+    }
+
+    String generateSource(List<Statement> statements) {
+        List<String> methods = new ArrayList<>();
+        for(int i = 0; i < statements.size(); i++) {
+            statements.get(i).accept(this);
+            if((i + 1) % STATEMENTS_PER_METHOD == 0 || i == statements.size() - 1) {
+                methods.add(body.toString());
+                body = new StringBuilder();
+            }
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("public final class ").append(className).append(" {\n");
+        for(int slot = 0; slot < variableTypes.length; slot++) {
+            if(variableTypes[slot] == null) continue;
+            source.append("    private static ").append(javaType(variableTypes[slot]))
+                .append(" v").append(slot).append(";\n");
+        }
+
+        source.append("\n    public static void run() {\n");
+        for(int i = 0; i < methods.size(); i++) {
+            source.append("        part").append(i).append("();\n");
+        }
+        source.append("    }\n");
+
+        for(int i = 0; i < methods.size(); i++) {
+            source.append("\n    private static void part").append(i).append("() {\n");
+            source.append(methods.get(i));
+            source.append("    }\n");
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    // Returns the bytes of the compiled class
+    byte[] compile(List<Statement> statements) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null) {
+            throw new IllegalStateException("Compiling to JVM class files needs a JDK, not just a JRE.");
+        }
+
+        JavaFileObject sourceFile = new SimpleJavaFileObject(
+                URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+            private final String source = generateSource(statements);
+
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standardManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + name + ".class"), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classBytes;
+                    }
+                };
+            }
+        };
+
+        List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-g:none");
+        boolean success = compiler.getTask(null, fileManager, diagnostics, options, null,
+            Collections.singletonList(sourceFile)).call();
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            // Nothing was written to disk, so there is nothing to clean up
+        }
+
+        if(!success) {
+            StringBuilder message = new StringBuilder("Generated code did not compile:");
+            for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append("\n").append(diagnostic.getMessage(null));
+            }
+            throw new IllegalStateException(message.toString());
+        }
+        return classBytes.toByteArray();
+    }
+
+    // Loads a class written by compile() and runs the program in it. Runtime
+    // errors are reported the same way as by the Interpreter.
+    static void runClassFile(Path classFile, OutputSink out, InputSource in, Diagnostics diagnostics) throws Exception {
+        Path file = classFile.toAbsolutePath();
+        String name = file.getFileName().toString();
+        if(name.endsWith(".class")) name = name.substring(0, name.length() - ".class".length());
+
+        URL directory = file.getParent().toUri().toURL();
+        try(URLClassLoader loader = new URLClassLoader(new URL[] { directory }, JvmCompiler.class.getClassLoader())) {
+            Class<?> programClass = loader.loadClass(name);
+            MiniPLRuntime.out = out;
+            MiniPLRuntime.in = in;
+            try {
+                programClass.getMethod("run").invoke(null);
+            } catch (InvocationTargetException e) {
+                out.flush();
+                if(e.getCause() instanceof RuntimeError) {
+                    diagnostics.runtimeError((RuntimeError)e.getCause());
+                } else {
+                    throw e;
+                }
+            }
+            out.flush();
+        }
+    }
+
+    private static String javaType(ValueType type) {
+        switch(type) {
+            case INT: return "long";
+            case BOOL: return "boolean";
+            default: return "CharSequence";
+        }
+    }
+
+    private static String javaLiteral(Object value) {
+        // The Optimizer can fold constants into negative literals, which
+        // need parentheses so that "- -1" doesn't turn into "--1"
+        if(value instanceof Long) return (long)value < 0 ? "(" + value + "L)" : value + "L";
+        if(value instanceof Boolean) return value.toString();
+
+        StringBuilder builder = new StringBuilder("\"");
+        for(char character : ((String)value).toCharArray()) {
+            switch(character) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if(character < ' ' || character > '~') {
+                        builder.append(String.format("\\u%04x", (int)character));
+                    } else {
+                        builder.append(character);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private String generate(Expression expression) {
+        return expression.accept(this);
+    }
+
+    private void line(String code) {
+        body.append("        ");
+        for(int i = 0; i < loopDepth; i++) {
+            body.append("    ");
+        }
+        body.append(code).append("\n");
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        if(statement.expression instanceof Expression.Assign) {
+            Expression.Assign assign = (Expression.Assign)statement.expression;
+            line("v" + assign.slot + " = " + generate(assign.value) + ";");
+            return null;
+        }
+        line("MiniPLRuntime.discard(" + generate(statement.expression) + ");");
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        line("MiniPLRuntime.print(" + generate(statement.expression) + ");");
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStatement(Statement.VariableStatement statement) {
+        variableTypes[statement.slot] = statement.valueType;
+        String value = statement.initializer != null
+            ? generate(statement.initializer)
+            : javaLiteral(statement.valueType.defaultValue());
+        line("v" + statement.slot + " = " + value + ";");
+        return null;
+    }
+
+    // The counter is a local long, it is written to the field only when the
+    // body reads it, and once after the loop
+    @Override
+    public Void visitForStatement(Statement.ForStatement statement) {
+        String counter = "counter" + loopDepth;
+        String end = "end" + loopDepth;
+        String variable = "v" + statement.slot;
+
+        line("{");
+        line("    long " + counter + " = " + generate(statement.start) + ";");
+        line("    long " + end + " = " + generate(statement.end) + ";");
+        line("    while(" + counter + " <= " + end + ") {");
+        loopDepth += 2;
+        if(statement.bodyReadsVariable) line(variable + " = " + counter + ";");
+        for(Statement bodyStatement : statement.body) {
+            bodyStatement.accept(this);
+        }
+        line(counter + "++;");
+        line("if(" + counter + " == Long.MIN_VALUE) break;");
+        loopDepth -= 2;
+        line("    }");
+        line("    " + variable + " = " + counter + ";");
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitReadStatement(Statement.ReadStatement statement) {
+        String read = statement.valueType == ValueType.INT ? "readInteger" : "readString";
+        line("v" + statement.slot + " = MiniPLRuntime." + read + "(" + statement.keyword.line + ");");
+        return null;
+    }
+
+    @Override
+    public String visitUnaryExpression(Expression.Unary expression) {
+        switch(expression.operator.type) {
+            case NOT: return "(!" + generate(expression.expression) + ")";
+            case MINUS: return "(-" + generate(expression.expression) + ")";
+        }
+        throw new IllegalStateException("Unknown unary operator " + expression.operator.lexeme);
+    }
+
+    @Override
+    public String visitBinaryExpression(Expression.Binary expression) {
+        String left = generate(expression.leftExpression);
+        String right = generate(expression.rightExpression);
+
+        switch(expression.operator.type) {
+            case GREATER: return "(" + left + " > " + right + ")";
+            case LESS: return "(" + left + " < " + right + ")";
+            case MINUS: return "(" + left + " - " + right + ")";
+            case PLUS:
+                if(expression.type == ValueType.STRING) return "MiniPLRuntime.concat(" + left + ", " + right + ")";
+                return "(" + left + " + " + right + ")";
+            case STAR: return "(" + left + " * " + right + ")";
+            case SLASH:
+                return "MiniPLRuntime.divide(" + left + ", " + right + ", " + expression.operator.line + ")";
+            case EQUAL:
+                if(expression.leftExpression.type == ValueType.STRING) {
+                    return "MiniPLRuntime.equal(" + left + ", " + right + ")";
+                }
+                return "(" + left + " == " + right + ")";
+        }
+        throw new IllegalStateException("Unknown binary operator " + expression.operator.lexeme);
+    }
+
+    @Override
+    public String visitLiteralExpression(Expression.Literal expression) {
+        return javaLiteral(expression.value);
+    }
+
+    @Override
+    public String visitGroupingExpression(Expression.Grouping expression) {
+        return "(" + generate(expression.expression) + ")";
+    }
+
+    @Override
+    public String visitVariableExpression(Expression.Variable expression) {
+        return "v" + expression.slot;
+    }
+
+    @Override
+    public String visitAssignExpression(Expression.Assign expression) {
+        return "(v" + expression.slot + " = " + generate(expression.value) + ")";
+    }
+}
@@ -2,15 +2,23 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
-public class Lexer {
+public class Lexer implements TokenSource {
     private String source;
-    private List<Token> tokens = new ArrayList<>();
+    private final Diagnostics diagnostics;
+    // The token found by the last call to scanToken(), if any
+    private Token scannedToken;
+    // When scanning into a TokenBuffer, tokens are recorded there instead of
+    // being created as objects
+    private TokenBuffer buffer;
+    // Every lexeme and string literal of the program, each kept once
+    private final StringPool strings = new StringPool();
 
     private int startPosition = 0;
     private int currentPosition = 0;
     private int lineNumber = 1;
 
-    private static HashMap<String, TokenType> keywords;
+    // The Utf8Lexer looks its words up here too
+    static HashMap<String, TokenType> keywords;
 
     static {
         keywords = new HashMap<>();
@@ -27,18 +35,62 @@ public class Lexer {
         keywords.put("assert", TokenType.ASSERT);
     }
 
-    public Lexer(String source) {
+    public Lexer(String source, Diagnostics diagnostics) {
+        this(source, 1, diagnostics);
+    }
+
+    // For scanning a part of a file, which starts on the given line
+    public Lexer(String source, int firstLine, Diagnostics diagnostics) {
         this.source = source;
+        this.diagnostics = diagnostics;
+        this.lineNumber = firstLine;
+    }
+
+    // Where the next token is scanned from, right after the last token
+    int position() {
+        return this.currentPosition;
     }
     // Read characters and form TOKENS out of them
     public List<Token> scanFileForTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while(token.type != TokenType.EOF);
+
+        return tokens;
+    }
+
+    // Scans the whole input into a compact TokenBuffer. No Token objects,
+    // lexemes or literals are created for the tokens.
+    public TokenBuffer scanIntoBuffer() {
+        this.buffer = new TokenBuffer(this.source);
         while(!isAtEnd()) {
             this.startPosition = this.currentPosition;
             scanToken();
         }
 
-        this.tokens.add(new Token(TokenType.EOF, "", null, this.lineNumber));
-        return this.tokens;
+        this.startPosition = this.currentPosition;
+        this.buffer.add(TokenType.EOF, this.startPosition, this.currentPosition, this.lineNumber);
+        return this.buffer;
+    }
+
+    // Scans only as far as needed to find the next token. After the end of
+    // the input every call returns an EOF token.
+    @Override
+    public Token nextToken() {
+        while(!isAtEnd()) {
+            this.startPosition = this.currentPosition;
+            scanToken();
+            if(this.scannedToken != null) {
+                Token token = this.scannedToken;
+                this.scannedToken = null;
+                return token;
+            }
+        }
+
+        return new Token(TokenType.EOF, "", null, this.lineNumber);
     }
 
     private boolean isAtEnd() {
@@ -62,6 +114,7 @@ public class Lexer {
             case '!': addToken(TokenType.NOT); break;
             case '>': addToken(TokenType.GREATER); break;
             case '<': addToken(TokenType.LESS); break;
+            case '=': addToken(TokenType.EQUAL); break;
             case '&': addToken(TokenType.AND); break;
             case '|': addToken(TokenType.OR); break;
             case '.':
@@ -71,7 +124,7 @@ public class Lexer {
                 if(isNextCharacter('.')) {
                     addToken(TokenType.SPREAD);
                 } else {
-                    CompilerMain.error(lineNumber, "Unexpected token: " + currentCharacter);
+                    diagnostics.error(lineNumber, "Unexpected token: " + currentCharacter);
                 }
                 break;
             // We need to know whether we have just ':' or ':='
@@ -90,7 +143,7 @@ public class Lexer {
                     this.handleNumber();
                     return;
                 }
-                CompilerMain.error(lineNumber, "Unexpected token: " + currentCharacter);
+                diagnostics.error(lineNumber, "Unexpected token: " + currentCharacter);
         }
     }
 
@@ -98,7 +151,25 @@ public class Lexer {
         while(this.isNumber(this.peekNextCharacter()) && peekNextCharacter() != '\0' && !isAtEnd()) {
             getNextCharacter();
         }
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(this.startPosition, this.currentPosition)));
+        // MiniPL integers are 64-bit, literals that don't fit are an error.
+        // The value is computed straight from the characters, so no substring
+        // is needed unless the token is actually created.
+        long value = 0;
+        for(int i = this.startPosition; i < this.currentPosition; i++) {
+            int digit = source.charAt(i) - '0';
+            if(value > (Long.MAX_VALUE - digit) / 10) {
+                diagnostics.error(lineNumber, "Integer literal is too large: "
+                    + source.substring(this.startPosition, this.currentPosition));
+                return;
+            }
+            value = value * 10 + digit;
+        }
+
+        if(this.buffer != null) {
+            addToken(TokenType.NUMBER);
+        } else {
+            addToken(TokenType.NUMBER, value);
+        }
     }
 
     private void handleReservedKeyword() {
@@ -106,13 +177,17 @@ public class Lexer {
         while(this.isAlphabet(this.peekNextCharacter()) && peekNextCharacter() != '\0' && !isAtEnd()) {
             getNextCharacter();
         }
-        // Fetch from keyword hashmap with the result
-        if(keywords.get(this.source.substring(this.startPosition, this.currentPosition)) != null) {
-            addToken(keywords.get(this.source.substring(this.startPosition, this.currentPosition)));
+        // Fetch from keyword hashmap with the pooled word, which is only
+        // created the first time the word is seen
+        String word = this.strings.intern(this.source, this.startPosition, this.currentPosition);
+        TokenType keyword = keywords.get(word);
+        // NULL => not a keyword, it's an identifier (or syntax error).
+        TokenType type = keyword != null ? keyword : TokenType.IDENTIFIER;
+        if(this.buffer != null) {
+            addToken(type);
             return;
         }
-        // NULL => not a keyword, it's an identifier (or syntax error).
-        addToken(TokenType.IDENTIFIER);
+        this.scannedToken = new Token(type, word, null, this.lineNumber);
     }
 
     private void handleStringLiteral() {
@@ -122,8 +197,12 @@ public class Lexer {
             if(peekNextCharacter() == '"')  {
                 foundClosingQuote = true;
                 getNextCharacter();
-                String value = source.substring(this.startPosition + 1, this.currentPosition - 1);
-                addToken(TokenType.STRING_LIT, value);
+                if(this.buffer != null) {
+                    addToken(TokenType.STRING_LIT);
+                } else {
+                    String value = this.strings.intern(this.source, this.startPosition + 1, this.currentPosition - 1);
+                    addToken(TokenType.STRING_LIT, value);
+                }
                 break;
             }
             if(peekNextCharacter() == '\n') this.lineNumber++;
@@ -131,7 +210,7 @@ public class Lexer {
         }
         // If we found a closing quote, break out of switch, otherwise error
         if(foundClosingQuote) return;
-        CompilerMain.error(this.lineNumber, "Unterminated string");
+        diagnostics.error(this.lineNumber, "Unterminated string");
     }
 
     private boolean isNumber(char character) {
@@ -156,12 +235,16 @@ public class Lexer {
     }
 
     private void addToken(TokenType tokenType) {
+        if(this.buffer != null) {
+            this.buffer.add(tokenType, this.startPosition, this.currentPosition, this.lineNumber);
+            return;
+        }
         addToken(tokenType, null);
     }
 
     private void addToken(TokenType tokenType, Object literal) {
-        String text = this.source.substring(this.startPosition, this.currentPosition);
-        this.tokens.add(new Token(tokenType, text, literal, this.lineNumber));
+        String text = this.strings.intern(this.source, this.startPosition, this.currentPosition);
+        this.scannedToken = new Token(tokenType, text, literal, this.lineNumber);
     }
 
     private boolean isNextCharacter(char character) {
@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Moves work out of the bodies of for loops. It is run by the Optimizer on
+// every loop, after the body has been simplified and inner loops have been
+// done, so it works from the innermost loop out.
+//
+// An expression in the body that only reads variables the loop never writes
+// is computed once before the loop into a new variable, and the body reads
+// that variable instead. Declarations of such variables that an inner loop
+// put into the body are moved further out the same way, when nothing else in
+// the body writes them.
+//
+// Only expressions without side effects that can't fail are moved, so an
+// expression that now runs before the loop, even when the loop doesn't run at
+// all, can't print an error or change a variable. That rules out assignments
+// and divisions by anything but a literal other than 0.
+//
+// Nothing is done for the range of a loop: every engine evaluates the start
+// and the end once, before the first iteration. Multiplications by the loop
+// variable are not turned into additions either. In the interpreters the
+// statement that would add to the new variable on every iteration costs more
+// than the multiplications it saves, and the JIT does it by itself for the
+// classes of the JvmCompiler.
+//
+// The new variables get slots after those of the Resolver and names that no
+// MiniPL identifier can have.
+class LoopOptimizer {
+    private int nextSlot;
+    private int temporaryCount = 0;
+
+    // For the loop being optimized: how many times it writes every slot,
+    // counting the start, the end and the body, and where the statements
+    // that have to run before it go
+    private Statement.ForStatement loop;
+    private int[] writes;
+    private List<Statement> preheader;
+
+    LoopOptimizer(int variableCount) {
+        this.nextSlot = variableCount;
+    }
+
+    // The slots of the Resolver and those of the new variables
+    int variableCount() {
+        return nextSlot;
+    }
+
+    // Returns the new loop and adds what has to run before it to preheader
+    Statement.ForStatement optimize(Statement.ForStatement loop, List<Statement> preheader) {
+        this.loop = loop;
+        this.preheader = preheader;
+        this.writes = new Usage(loop).writes;
+
+        List<Statement> body = new ArrayList<>(loop.body.length);
+        for(Statement statement : loop.body) {
+            if(isTemporaryDeclaration(statement)) {
+                Statement.VariableStatement declaration = (Statement.VariableStatement)statement;
+                if(writes[declaration.slot] == 1 && canMove(declaration.initializer)) {
+                    preheader.add(declaration);
+                    writes[declaration.slot] = 0;
+                    continue;
+                }
+            }
+            body.add(rewrite(statement));
+        }
+
+        Statement[] newBody = body.toArray(new Statement[0]);
+        if(Arrays.equals(newBody, loop.body)) return loop;
+
+        Statement.ForStatement optimized = new Statement.ForStatement(loop.variable, loop.start, loop.end, newBody);
+        optimized.slot = loop.slot;
+        optimized.bodyReadsVariable = loop.bodyReadsVariable;
+        optimized.line = loop.line;
+        return optimized;
+    }
+
+    private boolean isTemporaryDeclaration(Statement statement) {
+        return statement instanceof Statement.VariableStatement
+            && ((Statement.VariableStatement)statement).name.lexeme.startsWith("$");
+    }
+
+    // Replaces an expression that is worth computing only once
+    private Expression hoist(Expression expression) {
+        boolean worthIt = expression instanceof Expression.Binary || expression instanceof Expression.Unary;
+        if(!worthIt || !canMove(expression)) return null;
+        Expression.Variable temporary = newVariable(expression.type);
+        preheader.add(declare(temporary, expression));
+        return temporary;
+    }
+
+    private boolean isWritten(int slot) {
+        return slot < writes.length && writes[slot] > 0;
+    }
+
+    // Without side effects and errors, and reads nothing the loop writes
+    private boolean canMove(Expression expression) {
+        if(!isPure(expression)) return false;
+        Usage usage = new Usage(expression);
+        for(int slot = 0; slot < usage.reads.length; slot++) {
+            if(usage.reads[slot] && isWritten(slot)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isPure(Expression expression) {
+        if(expression instanceof Expression.Literal || expression instanceof Expression.Variable) return true;
+        if(expression instanceof Expression.Unary) return isPure(((Expression.Unary)expression).expression);
+        if(expression instanceof Expression.Grouping) return isPure(((Expression.Grouping)expression).expression);
+        if(expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary)expression;
+            if(binary.operator.type == TokenType.SLASH) {
+                Expression divisor = binary.rightExpression;
+                boolean nonZero = divisor instanceof Expression.Literal && (long)((Expression.Literal)divisor).value != 0;
+                if(!nonZero) return false;
+            }
+            return isPure(binary.leftExpression) && isPure(binary.rightExpression);
+        }
+        return false;
+    }
+
+    private Expression.Variable newVariable(ValueType type) {
+        Token name = new Token(TokenType.IDENTIFIER, "$" + (++temporaryCount), null, loop.line);
+        Expression.Variable variable = new Expression.Variable(name);
+        variable.slot = nextSlot++;
+        variable.type = type;
+        return variable;
+    }
+
+    private Statement declare(Expression.Variable variable, Expression initializer) {
+        Statement.VariableStatement declaration = new Statement.VariableStatement(variable.name, null, initializer);
+        declaration.slot = variable.slot;
+        declaration.valueType = variable.type;
+        declaration.line = loop.line;
+        return declaration;
+    }
+
+    // The statement with the largest expressions that can be moved out of
+    // the loop replaced. The bodies of inner loops are left alone, they have
+    // been optimized already and what they could share with this loop is in
+    // their preheaders in this body.
+    private Statement rewrite(Statement statement) {
+        Statement rewritten;
+        if(statement instanceof Statement.ExpressionStatement) {
+            Expression expression = ((Statement.ExpressionStatement)statement).expression;
+            Expression newExpression = rewrite(expression);
+            if(newExpression == expression) return statement;
+            rewritten = new Statement.ExpressionStatement(newExpression);
+        } else if(statement instanceof Statement.PrintStatement) {
+            Expression expression = ((Statement.PrintStatement)statement).expression;
+            Expression newExpression = rewrite(expression);
+            if(newExpression == expression) return statement;
+            rewritten = new Statement.PrintStatement(newExpression);
+        } else if(statement instanceof Statement.VariableStatement) {
+            Statement.VariableStatement declaration = (Statement.VariableStatement)statement;
+            if(declaration.initializer == null) return statement;
+            Expression initializer = rewrite(declaration.initializer);
+            if(initializer == declaration.initializer) return statement;
+            Statement.VariableStatement newDeclaration =
+                new Statement.VariableStatement(declaration.name, declaration.type, initializer);
+            newDeclaration.slot = declaration.slot;
+            newDeclaration.valueType = declaration.valueType;
+            rewritten = newDeclaration;
+        } else if(statement instanceof Statement.ForStatement) {
+            Statement.ForStatement inner = (Statement.ForStatement)statement;
+            Expression start = rewrite(inner.start);
+            Expression end = rewrite(inner.end);
+            if(start == inner.start && end == inner.end) return statement;
+            Statement.ForStatement newInner = new Statement.ForStatement(inner.variable, start, end, inner.body);
+            newInner.slot = inner.slot;
+            newInner.bodyReadsVariable = inner.bodyReadsVariable;
+            rewritten = newInner;
+        } else {
+            return statement;
+        }
+        rewritten.line = statement.line;
+        return rewritten;
+    }
+
+    private Expression rewrite(Expression expression) {
+        Expression replaced = hoist(expression);
+        if(replaced != null) return replaced;
+
+        if(expression instanceof Expression.Unary) {
+            Expression.Unary unary = (Expression.Unary)expression;
+            Expression operand = rewrite(unary.expression);
+            if(operand == unary.expression) return expression;
+            Expression.Unary newUnary = new Expression.Unary(unary.operator, operand);
+            newUnary.type = unary.type;
+            return newUnary;
+        }
+        if(expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary)expression;
+            Expression left = rewrite(binary.leftExpression);
+            Expression right = rewrite(binary.rightExpression);
+            if(left == binary.leftExpression && right == binary.rightExpression) return expression;
+            Expression.Binary newBinary = new Expression.Binary(left, binary.operator, right);
+            newBinary.type = binary.type;
+            return newBinary;
+        }
+        if(expression instanceof Expression.Assign) {
+            Expression.Assign assign = (Expression.Assign)expression;
+            Expression value = rewrite(assign.value);
+            if(value == assign.value) return expression;
+            Expression.Assign newAssign = new Expression.Assign(assign.name, value);
+            newAssign.slot = assign.slot;
+            newAssign.type = assign.type;
+            return newAssign;
+        }
+        return expression;
+    }
+
+    // The slots that some statements or an expression read and write
+    private class Usage implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+        final int[] writes = new int[nextSlot];
+        final boolean[] reads = new boolean[nextSlot];
+
+        Usage(Statement.ForStatement loop) {
+            loop.accept(this);
+        }
+
+        Usage(Expression expression) {
+            expression.accept(this);
+        }
+
+        @Override
+        public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+            return statement.expression.accept(this);
+        }
+
+        @Override
+        public Void visitPrintStatement(Statement.PrintStatement statement) {
+            return statement.expression.accept(this);
+        }
+
+        @Override
+        public Void visitVariableStatement(Statement.VariableStatement statement) {
+            if(statement.initializer != null) statement.initializer.accept(this);
+            writes[statement.slot]++;
+            return null;
+        }
+
+        @Override
+        public Void visitForStatement(Statement.ForStatement statement) {
+            statement.start.accept(this);
+            statement.end.accept(this);
+            writes[statement.slot]++;
+            for(Statement bodyStatement : statement.body) {
+                bodyStatement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitReadStatement(Statement.ReadStatement statement) {
+            writes[statement.slot]++;
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpression(Expression.Unary expression) {
+            return expression.expression.accept(this);
+        }
+
+        @Override
+        public Void visitBinaryExpression(Expression.Binary expression) {
+            expression.leftExpression.accept(this);
+            return expression.rightExpression.accept(this);
+        }
+
+        @Override
+        public Void visitLiteralExpression(Expression.Literal expression) {
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpression(Expression.Grouping expression) {
+            return expression.expression.accept(this);
+        }
+
+        @Override
+        public Void visitVariableExpression(Expression.Variable expression) {
+            reads[expression.slot] = true;
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.Assign expression) {
+            expression.value.accept(this);
+            writes[expression.slot]++;
+            return null;
+        }
+    }
+}
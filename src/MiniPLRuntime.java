@@ -0,0 +1,53 @@
+// The runtime support for classes generated by the JvmCompiler. Generated code
+// calls these instead of the Interpreter, so that printing and runtime errors
+// look exactly the same as when the program is interpreted.
+public final class MiniPLRuntime {
+    private MiniPLRuntime() {}
+
+    // Set by JvmCompiler.runClassFile() before the program is run
+    static OutputSink out;
+    static InputSource in;
+
+    public static void print(long value) {
+        out.println(value);
+    }
+
+    public static void print(boolean value) {
+        out.println(value);
+    }
+
+    public static void print(CharSequence value) {
+        out.println(Interpreter.stringify(value));
+    }
+
+    public static long readInteger(int line) {
+        return in.readInteger(new Token(TokenType.READ, "read", null, line));
+    }
+
+    public static String readString(int line) {
+        return in.readWord(new Token(TokenType.READ, "read", null, line));
+    }
+
+    public static long divide(long left, long right, int line) {
+        if(right == 0) throw new RuntimeError(new Token(TokenType.SLASH, "/", null, line), "Division by zero.");
+        return left / right;
+    }
+
+    // Strings are CharSequences in the generated code, so that '+' can
+    // build Ropes like in the other engines
+    public static CharSequence concat(CharSequence left, CharSequence right) {
+        return Rope.concat(left, right);
+    }
+
+    public static boolean equal(CharSequence left, CharSequence right) {
+        return Rope.contentEquals(left, right);
+    }
+
+    // Expression statements whose value is not used. Java doesn't allow an
+    // arbitrary expression as a statement, so it is passed to one of these.
+    public static void discard(long value) {}
+
+    public static void discard(boolean value) {}
+
+    public static void discard(CharSequence value) {}
+}
@@ -0,0 +1,127 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// Runs MiniPL through javax.script, for programs that embed it:
+//
+//     ScriptEngine engine = new ScriptEngineManager().getEngineByName("minipl");
+//     CompiledScript script = ((Compilable)engine).compile(source);
+//     script.eval(context);
+//
+// compile() runs the whole front end once. The Compiled script only holds the
+// checked Program, which nothing changes after it has been compiled, so it
+// can be evaluated any number of times and from many threads at once. Every
+// eval gets a new Interpreter, and so its own Environment, and reads and
+// prints through the reader and writer of the context it was given.
+//
+// MiniPL has no way to refer to variables it didn't declare, so the bindings
+// of the context are not visible to the program. eval() always returns null.
+public class MiniPLScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final ScriptEngineFactory factory;
+    // The Benchmark changes these
+    final CompilerMain.Options options = new CompilerMain.Options();
+
+    MiniPLScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    public static class Compiled extends CompiledScript {
+        private final MiniPLScriptEngine engine;
+        // Final, so a thread that sees the script also sees the whole tree
+        private final Program program;
+
+        Compiled(MiniPLScriptEngine engine, Program program) {
+            this.engine = engine;
+            this.program = program;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            OutputSink out = OutputSink.toWriter(context.getWriter(), OutputSink.FlushPolicy.ON_EXIT, 0);
+            InputSource in = InputSource.fromReader(context.getReader());
+            in.tie(out);
+            Diagnostics diagnostics = new Diagnostics(new PrintStream(new ByteArrayOutputStream(), false,
+                Charset.defaultCharset()));
+            // Neither is closed, they belong to the context
+            new Interpreter(out, in, Fuel.unlimited(), diagnostics).interpretExpression(program);
+
+            if(diagnostics.runtimeError != null) {
+                RuntimeError error = diagnostics.runtimeError;
+                throw new ScriptException(error.getMessage(), fileName(context), error.token.line);
+            }
+            return null;
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+
+    @Override
+    public Compiled compile(String script) throws ScriptException {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Diagnostics diagnostics = new Diagnostics(new PrintStream(errors, false, Charset.defaultCharset()));
+        Program program = CompilerMain.compile(script, options, diagnostics);
+        if(program == null) {
+            // All of the errors, one per line, like they are printed by main()
+            throw new ScriptException(errors.toString(Charset.defaultCharset()).trim());
+        }
+        return new Compiled(this, program);
+    }
+
+    @Override
+    public Compiled compile(Reader script) throws ScriptException {
+        return compile(readAll(script));
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(readAll(reader), context);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static String fileName(ScriptContext context) {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name != null ? name.toString() : null;
+    }
+
+    private static String readAll(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            int count;
+            while((count = reader.read(buffer)) >= 0) {
+                source.append(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+}
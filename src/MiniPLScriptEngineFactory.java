@@ -0,0 +1,103 @@
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// Makes the MiniPLScriptEngine known to javax.script. It is registered in
+// resources/META-INF/services, so the ScriptEngineManager finds it when the
+// compiler is on the class path.
+public class MiniPLScriptEngineFactory implements ScriptEngineFactory {
+    private static final List<String> NAMES = List.of("minipl", "MiniPL", "mini-pl");
+    private static final List<String> EXTENSIONS = List.of("mpl", "minipl");
+    private static final List<String> MIME_TYPES = List.of("text/x-minipl");
+
+    public MiniPLScriptEngineFactory() {
+    }
+
+    @Override
+    public String getEngineName() {
+        return "MiniPL interpreter";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return ProgramCache.COMPILER_VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "MiniPL";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch(key) {
+            case ScriptEngine.ENGINE:
+                return getEngineName();
+            case ScriptEngine.ENGINE_VERSION:
+                return getEngineVersion();
+            case ScriptEngine.NAME:
+                return NAMES.get(0);
+            case ScriptEngine.LANGUAGE:
+                return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION:
+                return getLanguageVersion();
+            case "THREADING":
+                // Compiled scripts can run on many threads, and runs don't
+                // share any variables
+                return "MULTITHREADED";
+        }
+        return null;
+    }
+
+    @Override
+    public String getMethodCallSyntax(String object, String method, String... args) {
+        throw new UnsupportedOperationException("MiniPL has no methods.");
+    }
+
+    // MiniPL strings have no escapes, so there is no way to print a '"'. Like
+    // the other statements of getProgram(), it has no ';' of its own.
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        if(toDisplay.indexOf('"') >= 0) {
+            throw new IllegalArgumentException("MiniPL strings can't contain '\"': " + toDisplay);
+        }
+        return "print \"" + toDisplay + "\"";
+    }
+
+    // Ends every statement with a ';', unless it has one already
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for(String statement : statements) {
+            program.append(statement);
+            if(!statement.stripTrailing().endsWith(";")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new MiniPLScriptEngine(this);
+    }
+}
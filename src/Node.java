@@ -0,0 +1,770 @@
+// The executable tree used by the SpecializingInterpreter. It is built from the
+// Expression and Statement trees by the NodeBuilder, and unlike them the nodes
+// know how to execute themselves.
+//
+// Binary and unary operators start out as "uninitialized" nodes. The first time
+// such a node is executed it looks at the values its operands produced and
+// replaces itself in its parent with a node that is specialized for exactly
+// that operator and those operand types (for example IntAdd or StringEqual).
+// The specialized nodes evaluate their operands with executeLong() or
+// executeBoolean(), so in the steady state there is no switch on the operator
+// and no boxing or type checks. If a specialized node ever gets an operand of
+// another type, the child signals it with an UnexpectedResultException and the
+// node rewrites itself into the generic version, which handles every type.
+abstract class Node {
+    Node parent;
+
+    abstract Object execute(Environment environment);
+
+    long executeLong(Environment environment) throws UnexpectedResultException {
+        return expectLong(execute(environment));
+    }
+
+    boolean executeBoolean(Environment environment) throws UnexpectedResultException {
+        return expectBoolean(execute(environment));
+    }
+
+    // Used when the value of the node is not needed, assignments override this
+    // so that they don't have to box the assigned value
+    void executeVoid(Environment environment) {
+        execute(environment);
+    }
+
+    static long expectLong(Object value) throws UnexpectedResultException {
+        if(value instanceof Long) return (long)value;
+        throw new UnexpectedResultException(value);
+    }
+
+    static boolean expectBoolean(Object value) throws UnexpectedResultException {
+        if(value instanceof Boolean) return (boolean)value;
+        throw new UnexpectedResultException(value);
+    }
+
+    <T extends Node> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    // Puts the replacement in the place of this node in the tree
+    <T extends Node> T replace(T replacement) {
+        parent.replaceChild(this, replacement);
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    void replaceChild(Node child, Node replacement) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no replaceable children");
+    }
+
+    // Thrown by executeLong()/executeBoolean() when the value has another type.
+    // It carries the value, so that it doesn't have to be computed again.
+    static class UnexpectedResultException extends Exception {
+        final Object result;
+
+        UnexpectedResultException(Object result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+    }
+
+    // Statements
+
+    static class Program extends Node {
+        final Node[] statements;
+
+        Program(Node[] statements) {
+            this.statements = statements;
+            for(Node statement : statements) {
+                adopt(statement);
+            }
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            for(Node statement : statements) {
+                statement.executeVoid(environment);
+            }
+            return null;
+        }
+    }
+
+    static class Print extends Node {
+        private final OutputSink out;
+        private final ValueType type;
+        private Node expression;
+
+        Print(OutputSink out, ValueType type, Node expression) {
+            this.out = out;
+            this.type = type;
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if(type == ValueType.INT) {
+                try {
+                    out.println(expression.executeLong(environment));
+                } catch (UnexpectedResultException e) {
+                    out.println(Interpreter.stringify(e.result));
+                }
+                return null;
+            }
+            out.println(Interpreter.stringify(expression.execute(environment)));
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            expression = replacement;
+        }
+    }
+
+    static class Read extends Node {
+        private final InputSource in;
+        private final Token keyword;
+        private final int slot;
+        private final ValueType type;
+
+        Read(InputSource in, Token keyword, int slot, ValueType type) {
+            this.in = in;
+            this.keyword = keyword;
+            this.slot = slot;
+            this.type = type;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if(type == ValueType.INT) {
+                environment.assignInteger(slot, in.readInteger(keyword));
+            } else {
+                environment.assign(slot, in.readWord(keyword));
+            }
+            return null;
+        }
+    }
+
+    static class ExpressionStatement extends Node {
+        private Node expression;
+
+        ExpressionStatement(Node expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            expression.executeVoid(environment);
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            expression = replacement;
+        }
+    }
+
+    static class Declare extends Node {
+        private final int slot;
+        private final ValueType type;
+        private Node initializer;
+
+        Declare(int slot, ValueType type, Node initializer) {
+            this.slot = slot;
+            this.type = type;
+            this.initializer = initializer == null ? null : adopt(initializer);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if(initializer == null) {
+                environment.define(slot, type.defaultValue());
+            } else if(type == ValueType.INT) {
+                try {
+                    environment.defineInteger(slot, initializer.executeLong(environment));
+                } catch (UnexpectedResultException e) {
+                    environment.define(slot, e.result);
+                }
+            } else {
+                environment.define(slot, initializer.execute(environment));
+            }
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            initializer = replacement;
+        }
+    }
+
+    // A counted loop. The counter is a local long, it is only stored in the
+    // variable when the body reads it, and once after the loop.
+    static class For extends Node {
+        private final Token variable;
+        private final int slot;
+        private final boolean bodyReadsVariable;
+        private Node start;
+        private Node end;
+        private final Node[] body;
+
+        For(Token variable, int slot, boolean bodyReadsVariable, Node start, Node end, Node[] body) {
+            this.variable = variable;
+            this.slot = slot;
+            this.bodyReadsVariable = bodyReadsVariable;
+            this.start = adopt(start);
+            this.end = adopt(end);
+            this.body = body;
+            for(Node statement : body) {
+                adopt(statement);
+            }
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            long counter = executeBound(start, environment);
+            long last = executeBound(end, environment);
+            Node[] body = this.body;
+
+            while(counter <= last) {
+                if(bodyReadsVariable) environment.assignInteger(slot, counter);
+                for(Node statement : body) {
+                    statement.executeVoid(environment);
+                }
+                counter++;
+                // The end was the largest long, stop instead of wrapping around
+                if(counter == Long.MIN_VALUE) break;
+            }
+            environment.assignInteger(slot, counter);
+            return null;
+        }
+
+        private long executeBound(Node bound, Environment environment) {
+            try {
+                return bound.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                throw new RuntimeError(variable, "Range bounds must be numbers.");
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if(child == start) {
+                start = replacement;
+            } else {
+                end = replacement;
+            }
+        }
+    }
+
+    // Expressions
+
+    static class Literal extends Node {
+        private final Object value;
+        private final long longValue;
+
+        Literal(Object value) {
+            this.value = value;
+            this.longValue = value instanceof Long ? (long)value : 0;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value;
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            if(value instanceof Long) return longValue;
+            throw new UnexpectedResultException(value);
+        }
+    }
+
+    static class Variable extends Node {
+        private final int slot;
+
+        Variable(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.get(slot);
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            if(environment.holdsInteger(slot)) return environment.getInteger(slot);
+            throw new UnexpectedResultException(environment.get(slot));
+        }
+    }
+
+    static class Assign extends Node {
+        private final int slot;
+        private final ValueType type;
+        private Node value;
+
+        Assign(int slot, ValueType type, Node value) {
+            this.slot = slot;
+            this.type = type;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            executeVoid(environment);
+            return environment.get(slot);
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            executeVoid(environment);
+            if(environment.holdsInteger(slot)) return environment.getInteger(slot);
+            throw new UnexpectedResultException(environment.get(slot));
+        }
+
+        @Override
+        void executeVoid(Environment environment) {
+            if(type == ValueType.INT) {
+                try {
+                    environment.assignInteger(slot, value.executeLong(environment));
+                } catch (UnexpectedResultException e) {
+                    environment.assign(slot, e.result);
+                }
+                return;
+            }
+            environment.assign(slot, value.execute(environment));
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            value = replacement;
+        }
+    }
+
+    // Unary operators
+
+    abstract static class UnaryNode extends Node {
+        final Token operator;
+        Node operand;
+
+        UnaryNode(Token operator, Node operand) {
+            this.operator = operator;
+            this.operand = adopt(operand);
+        }
+
+        // Gives up on the specialization and finishes the current evaluation
+        // with the already computed operand
+        Object generalize(Object value) {
+            return replace(new GenericUnary(operator, operand)).compute(value);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            operand = replacement;
+        }
+    }
+
+    static class UninitializedUnary extends UnaryNode {
+        UninitializedUnary(Token operator, Node operand) {
+            super(operator, operand);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = operand.execute(environment);
+
+            if(operator.type == TokenType.MINUS && value instanceof Long) {
+                replace(new NegateInt(operator, operand));
+            } else if(operator.type == TokenType.NOT && value instanceof Boolean) {
+                replace(new NotBoolean(operator, operand));
+            } else {
+                replace(new GenericUnary(operator, operand));
+            }
+            return Operators.unary(operator, value);
+        }
+    }
+
+    static class NegateInt extends UnaryNode {
+        NegateInt(Token operator, Node operand) {
+            super(operator, operand);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            try {
+                return executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            try {
+                return -operand.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalize(e.result));
+            }
+        }
+    }
+
+    static class NotBoolean extends UnaryNode {
+        NotBoolean(Token operator, Node operand) {
+            super(operator, operand);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            try {
+                return executeBoolean(environment);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResultException {
+            try {
+                return !operand.executeBoolean(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(e.result));
+            }
+        }
+    }
+
+    static class GenericUnary extends UnaryNode {
+        GenericUnary(Token operator, Node operand) {
+            super(operator, operand);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return Operators.unary(operator, operand.execute(environment));
+        }
+
+        Object compute(Object value) {
+            return Operators.unary(operator, value);
+        }
+    }
+
+    // Binary operators
+
+    abstract static class BinaryNode extends Node {
+        final Token operator;
+        Node left;
+        Node right;
+
+        BinaryNode(Token operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        // Gives up on the specialization and finishes the current evaluation
+        // with the already computed operands. The right operand is evaluated
+        // here if the left one was the unexpected one.
+        Object generalize(Object leftValue, Object rightValue) {
+            return replace(new GenericBinary(operator, left, right)).compute(leftValue, rightValue);
+        }
+
+        Object generalizeLeft(Environment environment, Object leftValue) {
+            return generalize(leftValue, right.execute(environment));
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if(left == child) {
+                left = replacement;
+            } else if(right == child) {
+                right = replacement;
+            }
+        }
+    }
+
+    static class UninitializedBinary extends BinaryNode {
+        UninitializedBinary(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+
+            replace(specialize(leftValue, rightValue));
+            return Operators.binary(operator, leftValue, rightValue);
+        }
+
+        private Node specialize(Object leftValue, Object rightValue) {
+            boolean integers = leftValue instanceof Long && rightValue instanceof Long;
+            boolean strings = leftValue instanceof CharSequence && rightValue instanceof CharSequence;
+            switch(operator.type) {
+                case PLUS:
+                    if(integers) return new IntAdd(operator, left, right);
+                    if(strings) return new StringConcat(operator, left, right);
+                    break;
+                case MINUS: if(integers) return new IntSubtract(operator, left, right); break;
+                case STAR: if(integers) return new IntMultiply(operator, left, right); break;
+                case SLASH: if(integers) return new IntDivide(operator, left, right); break;
+                case LESS: if(integers) return new IntLess(operator, left, right); break;
+                case GREATER: if(integers) return new IntGreater(operator, left, right); break;
+                case EQUAL:
+                    if(integers) return new IntEqual(operator, left, right);
+                    if(leftValue instanceof Boolean && rightValue instanceof Boolean) {
+                        return new BooleanEqual(operator, left, right);
+                    }
+                    if(strings) return new StringEqual(operator, left, right);
+                    break;
+            }
+            return new GenericBinary(operator, left, right);
+        }
+    }
+
+    abstract static class IntArithmetic extends BinaryNode {
+        IntArithmetic(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            try {
+                return executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+    }
+
+    static class IntAdd extends IntArithmetic {
+        IntAdd(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            long leftValue;
+            try {
+                leftValue = left.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalizeLeft(environment, e.result));
+            }
+            try {
+                return leftValue + right.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalize(leftValue, e.result));
+            }
+        }
+    }
+
+    static class IntSubtract extends IntArithmetic {
+        IntSubtract(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            long leftValue;
+            try {
+                leftValue = left.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalizeLeft(environment, e.result));
+            }
+            try {
+                return leftValue - right.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalize(leftValue, e.result));
+            }
+        }
+    }
+
+    static class IntMultiply extends IntArithmetic {
+        IntMultiply(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            long leftValue;
+            try {
+                leftValue = left.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalizeLeft(environment, e.result));
+            }
+            try {
+                return leftValue * right.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalize(leftValue, e.result));
+            }
+        }
+    }
+
+    static class IntDivide extends IntArithmetic {
+        IntDivide(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        long executeLong(Environment environment) throws UnexpectedResultException {
+            long leftValue;
+            long rightValue;
+            try {
+                leftValue = left.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalizeLeft(environment, e.result));
+            }
+            try {
+                rightValue = right.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectLong(generalize(leftValue, e.result));
+            }
+            if(rightValue == 0) throw new RuntimeError(operator, "Division by zero.");
+            return leftValue / rightValue;
+        }
+    }
+
+    abstract static class Comparison extends BinaryNode {
+        Comparison(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            try {
+                return executeBoolean(environment);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+    }
+
+    static class IntLess extends Comparison {
+        IntLess(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResultException {
+            long leftValue;
+            try {
+                leftValue = left.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalizeLeft(environment, e.result));
+            }
+            try {
+                return leftValue < right.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(leftValue, e.result));
+            }
+        }
+    }
+
+    static class IntGreater extends Comparison {
+        IntGreater(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResultException {
+            long leftValue;
+            try {
+                leftValue = left.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalizeLeft(environment, e.result));
+            }
+            try {
+                return leftValue > right.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(leftValue, e.result));
+            }
+        }
+    }
+
+    static class IntEqual extends Comparison {
+        IntEqual(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResultException {
+            long leftValue;
+            try {
+                leftValue = left.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalizeLeft(environment, e.result));
+            }
+            try {
+                return leftValue == right.executeLong(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(leftValue, e.result));
+            }
+        }
+    }
+
+    static class BooleanEqual extends Comparison {
+        BooleanEqual(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResultException {
+            boolean leftValue;
+            try {
+                leftValue = left.executeBoolean(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalizeLeft(environment, e.result));
+            }
+            try {
+                return leftValue == right.executeBoolean(environment);
+            } catch (UnexpectedResultException e) {
+                return expectBoolean(generalize(leftValue, e.result));
+            }
+        }
+    }
+
+    static class StringEqual extends Comparison {
+        StringEqual(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean executeBoolean(Environment environment) throws UnexpectedResultException {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if(leftValue instanceof CharSequence && rightValue instanceof CharSequence) {
+                return Rope.contentEquals((CharSequence)leftValue, (CharSequence)rightValue);
+            }
+            return expectBoolean(generalize(leftValue, rightValue));
+        }
+    }
+
+    static class StringConcat extends BinaryNode {
+        StringConcat(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if(leftValue instanceof CharSequence && rightValue instanceof CharSequence) {
+                return Rope.concat((CharSequence)leftValue, (CharSequence)rightValue);
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static class GenericBinary extends BinaryNode {
+        GenericBinary(Token operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            return Operators.binary(operator, leftValue, rightValue);
+        }
+
+        Object compute(Object leftValue, Object rightValue) {
+            return Operators.binary(operator, leftValue, rightValue);
+        }
+    }
+}
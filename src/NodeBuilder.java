@@ -0,0 +1,89 @@
+import java.util.List;
+
+// Builds the executable Node tree for the SpecializingInterpreter from the
+// statements that have been through the Resolver and the TypeChecker.
+public class NodeBuilder implements Expression.Visitor<Node>, Statement.Visitor<Node> {
+    // Where the Print nodes write to and the Read nodes read from
+    private final OutputSink out;
+    private final InputSource in;
+
+    NodeBuilder(OutputSink out, InputSource in) {
+        this.out = out;
+        this.in = in;
+    }
+
+    public Node.Program build(List<Statement> statements) {
+        Node[] nodes = new Node[statements.size()];
+        for(int i = 0; i < nodes.length; i++) {
+            nodes[i] = statements.get(i).accept(this);
+        }
+        return new Node.Program(nodes);
+    }
+
+    private Node build(Expression expression) {
+        return expression.accept(this);
+    }
+
+    @Override
+    public Node visitExpressionStatement(Statement.ExpressionStatement statement) {
+        return new Node.ExpressionStatement(build(statement.expression));
+    }
+
+    @Override
+    public Node visitPrintStatement(Statement.PrintStatement statement) {
+        return new Node.Print(out, statement.expression.type, build(statement.expression));
+    }
+
+    @Override
+    public Node visitVariableStatement(Statement.VariableStatement statement) {
+        Node initializer = statement.initializer == null ? null : build(statement.initializer);
+        return new Node.Declare(statement.slot, statement.valueType, initializer);
+    }
+
+    @Override
+    public Node visitForStatement(Statement.ForStatement statement) {
+        Node[] body = new Node[statement.body.length];
+        for(int i = 0; i < body.length; i++) {
+            body[i] = statement.body[i].accept(this);
+        }
+        return new Node.For(statement.variable, statement.slot, statement.bodyReadsVariable,
+            build(statement.start), build(statement.end), body);
+    }
+
+    @Override
+    public Node visitReadStatement(Statement.ReadStatement statement) {
+        return new Node.Read(in, statement.keyword, statement.slot, statement.valueType);
+    }
+
+    @Override
+    public Node visitUnaryExpression(Expression.Unary expression) {
+        return new Node.UninitializedUnary(expression.operator, build(expression.expression));
+    }
+
+    @Override
+    public Node visitBinaryExpression(Expression.Binary expression) {
+        return new Node.UninitializedBinary(expression.operator,
+            build(expression.leftExpression), build(expression.rightExpression));
+    }
+
+    @Override
+    public Node visitLiteralExpression(Expression.Literal expression) {
+        return new Node.Literal(expression.value);
+    }
+
+    // Parentheses only matter for the shape of the tree, they need no node
+    @Override
+    public Node visitGroupingExpression(Expression.Grouping expression) {
+        return build(expression.expression);
+    }
+
+    @Override
+    public Node visitVariableExpression(Expression.Variable expression) {
+        return new Node.Variable(expression.slot);
+    }
+
+    @Override
+    public Node visitAssignExpression(Expression.Assign expression) {
+        return new Node.Assign(expression.slot, expression.type, build(expression.value));
+    }
+}
@@ -0,0 +1,65 @@
+// The instruction set of the bytecode VM. The opcodes are plain ints instead of
+// an enum so that the code can be stored in a flat int[] and the dispatch loop
+// can switch on it directly, without an ordinal lookup.
+// Instructions that have operands store them in the next slots of the array.
+final class OpCode {
+    static final int CONSTANT = 0;      // operand: index into the constant pool
+    static final int NIL = 1;
+    static final int POP = 2;
+    static final int GET_VARIABLE = 3;  // operand: variable slot
+    static final int SET_VARIABLE = 4;  // operand: variable slot, leaves the value on the stack
+    static final int DEFINE_VARIABLE = 5; // operand: variable slot, pops the value
+    static final int NEGATE = 6;
+    static final int NOT = 7;
+    static final int ADD = 8;
+    static final int SUBTRACT = 9;
+    static final int MULTIPLY = 10;
+    static final int DIVIDE = 11;
+    static final int GREATER = 12;
+    static final int LESS = 13;
+    static final int EQUAL = 14;
+    static final int PRINT = 15;
+    static final int HALT = 16;
+    // A for loop keeps its counter and end on the stack, as two integers.
+    // FOR_TEST jumps out of the loop when the counter is past the end, and
+    // otherwise stores the counter in the variable, unless the slot is -1.
+    // FOR_NEXT increments the counter and jumps back to the FOR_TEST, and
+    // FOR_EXIT stores the final counter in the variable and pops both.
+    static final int FOR_TEST = 17;     // operands: variable slot or -1, jump target
+    static final int FOR_NEXT = 18;     // operand: jump target
+    static final int FOR_EXIT = 19;     // operand: variable slot
+    static final int READ_INTEGER = 20; // operand: variable slot
+    static final int READ_STRING = 21;  // operand: variable slot
+    static final int CONCAT = 22;
+
+    private static final String[] names = {
+        "CONSTANT", "NIL", "POP", "GET_VARIABLE", "SET_VARIABLE", "DEFINE_VARIABLE",
+        "NEGATE", "NOT", "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE",
+        "GREATER", "LESS", "EQUAL", "PRINT", "HALT",
+        "FOR_TEST", "FOR_NEXT", "FOR_EXIT", "READ_INTEGER", "READ_STRING", "CONCAT"
+    };
+
+    private OpCode() {}
+
+    static String name(int opCode) {
+        return names[opCode];
+    }
+
+    static int operandCount(int opCode) {
+        switch(opCode) {
+            case CONSTANT:
+            case GET_VARIABLE:
+            case SET_VARIABLE:
+            case DEFINE_VARIABLE:
+            case FOR_NEXT:
+            case FOR_EXIT:
+            case READ_INTEGER:
+            case READ_STRING:
+                return 1;
+            case FOR_TEST:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+// The semantics of the unary and binary operators for values of any type,
+// with the types checked when they are applied. The Optimizer and the
+// PartialEvaluator compute constants with them and the generic nodes of the
+// SpecializingInterpreter run on them, so a value computed at compile time is
+// always the one the engines would compute, and an error the same error.
+final class Operators {
+    private Operators() {
+    }
+
+    static Object unary(Token operator, Object value) {
+        switch(operator.type) {
+            case MINUS:
+                if(value instanceof Long) return -(long)value;
+                throw new RuntimeError(operator, "Operand must be a number.");
+            case NOT:
+                if(value instanceof Boolean) return !(boolean)value;
+                throw new RuntimeError(operator, "Operand must be a boolean.");
+        }
+        return null;
+    }
+
+    static Object binary(Token operator, Object left, Object right) {
+        if(operator.type == TokenType.EQUAL) {
+            return Interpreter.isEqual(left, right);
+        }
+        if(operator.type == TokenType.PLUS && left instanceof CharSequence && right instanceof CharSequence) {
+            return Rope.concat((CharSequence)left, (CharSequence)right);
+        }
+
+        if(!(left instanceof Long && right instanceof Long)) {
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+        long leftValue = (long)left;
+        long rightValue = (long)right;
+        switch(operator.type) {
+            case GREATER: return leftValue > rightValue;
+            case LESS: return leftValue < rightValue;
+            case MINUS: return leftValue - rightValue;
+            case PLUS: return leftValue + rightValue;
+            case STAR: return leftValue * rightValue;
+            case SLASH:
+                if(rightValue == 0) throw new RuntimeError(operator, "Division by zero.");
+                return leftValue / rightValue;
+        }
+        return null;
+    }
+}
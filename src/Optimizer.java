@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// An optimization pass that is run after the TypeChecker. It returns a new,
+// simpler tree that computes the same thing:
+//
+//  - Unary and Binary expressions whose operands are constants are folded into
+//    a Literal, unless computing them would be a runtime error (like 1 / 0),
+//    which is left for the engine to report when the program runs.
+//  - Grouping nodes are dropped, the tree already encodes the precedence.
+//  - Identities are simplified: x + 0, 0 + x, x - 0, x * 1, 1 * x and x / 1
+//    become x, s + "" and "" + s become s, --x and !!b become x and b.
+//  - A variable that is written only once, by a top-level declaration with a
+//    constant (or no) initializer, is replaced by that constant wherever it is
+//    read. A declaration in a loop body may never run, so it is left alone.
+//  - The bodies of for loops are given to the LoopOptimizer, which can move
+//    work out of them into new statements before the loop.
+//
+// Operands are never dropped when they could have side effects or errors, so
+// an assignment or a division by zero inside them still happens.
+public class Optimizer implements Expression.Visitor<Expression>, Statement.Visitor<Statement> {
+    // How many times every slot is written, by a declaration, an assignment,
+    // a for statement or a read statement
+    private final int[] writes;
+    // The values of the variables that are known to be constant, or null
+    private final Object[] constants;
+    private final LoopOptimizer loops;
+    // How many loop bodies the statement being optimized is in
+    private int loopDepth = 0;
+    // The statements that the LoopOptimizer moved out of the last loop, they
+    // go right before it
+    private final List<Statement> hoisted = new ArrayList<>();
+
+    Optimizer(int variableCount) {
+        this.writes = new int[variableCount];
+        this.constants = new Object[variableCount];
+        this.loops = new LoopOptimizer(variableCount);
+    }
+
+    public Program optimize(Program program) {
+        new WriteCounter().count(program.statements);
+
+        List<Statement> statements = new ArrayList<>(program.statements.size());
+        for(Statement statement : program.statements) {
+            optimize(statement, statements);
+        }
+        return new Program(statements, loops.variableCount());
+    }
+
+    private void optimize(Statement statement, List<Statement> into) {
+        Statement optimized = statement.accept(this);
+        into.addAll(hoisted);
+        hoisted.clear();
+        into.add(optimized);
+    }
+
+    private Expression optimize(Expression expression) {
+        return expression.accept(this);
+    }
+
+    private static Expression.Literal literal(Object value, ValueType type) {
+        Expression.Literal literal = new Expression.Literal(value);
+        literal.type = type;
+        return literal;
+    }
+
+    private static boolean isInteger(Expression expression, long value) {
+        return expression instanceof Expression.Literal
+            && ((Expression.Literal)expression).value instanceof Long
+            && (long)((Expression.Literal)expression).value == value;
+    }
+
+    private static boolean isEmptyString(Expression expression) {
+        return expression instanceof Expression.Literal
+            && "".equals(((Expression.Literal)expression).value);
+    }
+
+    @Override
+    public Statement visitExpressionStatement(Statement.ExpressionStatement statement) {
+        Statement optimized = new Statement.ExpressionStatement(optimize(statement.expression));
+        optimized.line = statement.line;
+        return optimized;
+    }
+
+    @Override
+    public Statement visitPrintStatement(Statement.PrintStatement statement) {
+        Statement optimized = new Statement.PrintStatement(optimize(statement.expression));
+        optimized.line = statement.line;
+        return optimized;
+    }
+
+    @Override
+    public Statement visitVariableStatement(Statement.VariableStatement statement) {
+        Expression initializer = statement.initializer != null ? optimize(statement.initializer) : null;
+
+        if(writes[statement.slot] == 1 && loopDepth == 0) {
+            if(initializer == null) {
+                constants[statement.slot] = statement.valueType.defaultValue();
+            } else if(initializer instanceof Expression.Literal) {
+                constants[statement.slot] = ((Expression.Literal)initializer).value;
+            }
+        }
+
+        Statement.VariableStatement optimized = new Statement.VariableStatement(statement.name, statement.type, initializer);
+        optimized.slot = statement.slot;
+        optimized.valueType = statement.valueType;
+        optimized.line = statement.line;
+        return optimized;
+    }
+
+    @Override
+    public Statement visitForStatement(Statement.ForStatement statement) {
+        Expression start = optimize(statement.start);
+        Expression end = optimize(statement.end);
+        List<Statement> body = new ArrayList<>(statement.body.length);
+        loopDepth++;
+        for(Statement bodyStatement : statement.body) {
+            optimize(bodyStatement, body);
+        }
+        loopDepth--;
+
+        Statement.ForStatement optimized = new Statement.ForStatement(statement.variable, start, end,
+            body.toArray(new Statement[0]));
+        optimized.slot = statement.slot;
+        optimized.bodyReadsVariable = statement.bodyReadsVariable;
+        optimized.line = statement.line;
+        return loops.optimize(optimized, hoisted);
+    }
+
+    // Nothing to optimize, the variable was counted as written so it is never
+    // taken for a constant
+    @Override
+    public Statement visitReadStatement(Statement.ReadStatement statement) {
+        return statement;
+    }
+
+    @Override
+    public Expression visitUnaryExpression(Expression.Unary expression) {
+        Expression operand = optimize(expression.expression);
+
+        if(operand instanceof Expression.Literal) {
+            try {
+                return literal(Operators.unary(expression.operator, ((Expression.Literal)operand).value),
+                    expression.type);
+            } catch (RuntimeError error) {
+                // Left for the engine to report
+            }
+        }
+
+        // --x and !!b
+        if(operand instanceof Expression.Unary
+                && ((Expression.Unary)operand).operator.type == expression.operator.type) {
+            return ((Expression.Unary)operand).expression;
+        }
+
+        Expression.Unary optimized = new Expression.Unary(expression.operator, operand);
+        optimized.type = expression.type;
+        return optimized;
+    }
+
+    @Override
+    public Expression visitBinaryExpression(Expression.Binary expression) {
+        Expression left = optimize(expression.leftExpression);
+        Expression right = optimize(expression.rightExpression);
+
+        if(left instanceof Expression.Literal && right instanceof Expression.Literal) {
+            try {
+                Object value = Operators.binary(expression.operator,
+                    ((Expression.Literal)left).value, ((Expression.Literal)right).value);
+                // Literals hold Strings, not the Ropes that '+' makes
+                if(value instanceof CharSequence) value = value.toString();
+                return literal(value, expression.type);
+            } catch (RuntimeError error) {
+                // Left for the engine to report
+            }
+        }
+
+        switch(expression.operator.type) {
+            case PLUS:
+                if(isInteger(right, 0)) return left;
+                if(isInteger(left, 0)) return right;
+                if(isEmptyString(right)) return left;
+                if(isEmptyString(left)) return right;
+                break;
+            case MINUS:
+                if(isInteger(right, 0)) return left;
+                break;
+            case STAR:
+                if(isInteger(right, 1)) return left;
+                if(isInteger(left, 1)) return right;
+                break;
+            case SLASH:
+                if(isInteger(right, 1)) return left;
+                break;
+        }
+
+        Expression.Binary optimized = new Expression.Binary(left, expression.operator, right);
+        optimized.type = expression.type;
+        return optimized;
+    }
+
+    @Override
+    public Expression visitLiteralExpression(Expression.Literal expression) {
+        return expression;
+    }
+
+    @Override
+    public Expression visitGroupingExpression(Expression.Grouping expression) {
+        return optimize(expression.expression);
+    }
+
+    @Override
+    public Expression visitVariableExpression(Expression.Variable expression) {
+        Object value = constants[expression.slot];
+        if(value != null) return literal(value, expression.type);
+        return expression;
+    }
+
+    @Override
+    public Expression visitAssignExpression(Expression.Assign expression) {
+        Expression.Assign optimized = new Expression.Assign(expression.name, optimize(expression.value));
+        optimized.slot = expression.slot;
+        optimized.type = expression.type;
+        return optimized;
+    }
+
+    // Counts the writes to every slot before the optimization starts, so it
+    // is known which variables never change
+    private class WriteCounter implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+        void count(List<Statement> statements) {
+            for(Statement statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        private void count(Expression expression) {
+            expression.accept(this);
+        }
+
+        @Override
+        public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+            count(statement.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStatement(Statement.PrintStatement statement) {
+            count(statement.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableStatement(Statement.VariableStatement statement) {
+            if(statement.initializer != null) count(statement.initializer);
+            writes[statement.slot]++;
+            return null;
+        }
+
+        @Override
+        public Void visitForStatement(Statement.ForStatement statement) {
+            count(statement.start);
+            count(statement.end);
+            writes[statement.slot]++;
+            for(Statement bodyStatement : statement.body) {
+                bodyStatement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitReadStatement(Statement.ReadStatement statement) {
+            writes[statement.slot]++;
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpression(Expression.Unary expression) {
+            count(expression.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpression(Expression.Binary expression) {
+            count(expression.leftExpression);
+            count(expression.rightExpression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpression(Expression.Literal expression) {
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpression(Expression.Grouping expression) {
+            count(expression.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpression(Expression.Variable expression) {
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.Assign expression) {
+            count(expression.value);
+            writes[expression.slot]++;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Where the print statements of a program write to. Printed values are
+// collected in a large byte buffer that is written out in one go, instead of
+// a synchronized and flushed System.out.println() for every print.
+// Numbers are written into the buffer digit by digit, so printing them
+// doesn't create a String.
+//
+// When the buffer is written out is decided by the FlushPolicy. The buffer is
+// always written when it is full and when flush() is called, which the
+// engines do when the program ends or stops with a runtime error.
+public class OutputSink {
+    enum FlushPolicy {
+        ON_EXIT,        // only when the buffer is full or the program ends
+        ON_NEWLINE,     // after every printed line
+        EVERY_N_BYTES   // whenever at least flushBytes are waiting
+    }
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    private final WritableByteChannel channel;
+    private final FlushPolicy policy;
+    private final int flushBytes;
+    private final Charset charset;
+    private final byte[] buffer;
+    private final ByteBuffer wrapped;
+    private int count = 0;
+
+    OutputSink(WritableByteChannel channel, FlushPolicy policy, int flushBytes, int bufferSize, Charset charset) {
+        this.channel = channel;
+        this.policy = policy;
+        this.flushBytes = flushBytes;
+        this.charset = charset;
+        // A long, its sign and a line separator always fit
+        this.buffer = new byte[Math.max(bufferSize, 32)];
+        this.wrapped = ByteBuffer.wrap(buffer);
+    }
+
+    static OutputSink toStream(OutputStream out, FlushPolicy policy, int flushBytes) {
+        return new OutputSink(Channels.newChannel(out), policy, flushBytes,
+            DEFAULT_BUFFER_SIZE, Charset.defaultCharset());
+    }
+
+    // Writes straight to a FileChannel, without going through a stream
+    static OutputSink toFile(Path file, FlushPolicy policy, int flushBytes) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new OutputSink(channel, policy, flushBytes, DEFAULT_BUFFER_SIZE, Charset.defaultCharset());
+    }
+
+    // Writes to a character stream, like the writer of a ScriptContext. The
+    // bytes are UTF-8 inside the sink and decoded when the buffer is written.
+    static OutputSink toWriter(Writer writer, FlushPolicy policy, int flushBytes) {
+        return new OutputSink(new WriterChannel(writer, StandardCharsets.UTF_8), policy, flushBytes,
+            DEFAULT_BUFFER_SIZE, StandardCharsets.UTF_8);
+    }
+
+    public void println(long value) {
+        ensureSpace(20 + NEWLINE.length);
+        if(value == Long.MIN_VALUE) {
+            append(MIN_LONG);
+        } else {
+            if(value < 0) {
+                buffer[count++] = '-';
+                value = -value;
+            }
+            // Write the digits from the end, then they are in the right order
+            int end = count + digitCount(value);
+            int position = end;
+            do {
+                buffer[--position] = (byte)('0' + value % 10);
+                value /= 10;
+            } while(value != 0);
+            count = end;
+        }
+        endLine();
+    }
+
+    public void println(boolean value) {
+        ensureSpace(5 + NEWLINE.length);
+        append(value ? TRUE : FALSE);
+        endLine();
+    }
+
+    public void println(CharSequence value) {
+        int length = value.length();
+        if(isAscii(value)) {
+            ensureSpace(Math.min(length, buffer.length));
+            for(int i = 0; i < length; i++) {
+                if(count == buffer.length) writeBuffer();
+                buffer[count++] = (byte)value.charAt(i);
+            }
+        } else {
+            write(value.toString().getBytes(charset));
+        }
+        ensureSpace(NEWLINE.length);
+        endLine();
+    }
+
+    public void flush() {
+        if(count > 0) writeBuffer();
+    }
+
+    // Flushes and closes the file or stream behind the sink
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isAscii(CharSequence value) {
+        for(int i = 0; i < value.length(); i++) {
+            if(value.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while(value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private void endLine() {
+        append(NEWLINE);
+        if(policy == FlushPolicy.ON_NEWLINE
+                || (policy == FlushPolicy.EVERY_N_BYTES && count >= flushBytes)) {
+            writeBuffer();
+        }
+    }
+
+    // Only for short arrays that ensureSpace() has made room for
+    private void append(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void write(byte[] bytes) {
+        int offset = 0;
+        while(offset < bytes.length) {
+            if(count == buffer.length) writeBuffer();
+            int length = Math.min(bytes.length - offset, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+            offset += length;
+        }
+    }
+
+    private void ensureSpace(int bytes) {
+        if(buffer.length - count < bytes) writeBuffer();
+    }
+
+    // Decodes the bytes written to it into a Writer. A character whose bytes
+    // are split between two writes waits in the input buffer for the rest.
+    private static class WriterChannel implements WritableByteChannel {
+        private final Writer writer;
+        private final CharsetDecoder decoder;
+        private final ByteBuffer input = ByteBuffer.allocate(8 * 1024);
+        private final CharBuffer chars = CharBuffer.allocate(8 * 1024);
+        private boolean open = true;
+
+        WriterChannel(Writer writer, Charset charset) {
+            this.writer = writer;
+            this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public int write(ByteBuffer bytes) throws IOException {
+            int count = bytes.remaining();
+            while(bytes.hasRemaining()) {
+                int length = Math.min(bytes.remaining(), input.remaining());
+                input.put(bytes.slice(bytes.position(), length));
+                bytes.position(bytes.position() + length);
+                input.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(input, chars, false);
+                    writer.write(chars.array(), 0, chars.position());
+                    chars.clear();
+                } while(result.isOverflow());
+                input.compact();
+            }
+            // The sink only writes when it wants the output to be seen
+            writer.flush();
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            writer.close();
+        }
+    }
+
+    private void writeBuffer() {
+        wrapped.clear().limit(count);
+        try {
+            while(wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+}
@@ -4,11 +4,26 @@ import java.util.List;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    private final TokenStream tokens;
+    private final Diagnostics diagnostics;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, Diagnostics diagnostics) {
+        this(new TokenStream.FromList(tokens), diagnostics);
+    }
+
+    // Parses while the lexer scans, without building the whole token list
+    Parser(TokenSource lexer, Diagnostics diagnostics) {
+        this(new TokenStream.FromLexer(lexer), diagnostics);
+    }
+
+    // Parses a compact TokenBuffer without making a Token for every token
+    Parser(TokenBuffer tokens, Diagnostics diagnostics) {
+        this(new TokenStream.FromBuffer(tokens), diagnostics);
+    }
+
+    Parser(TokenStream tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
     }
 
     private Expression expression() {
@@ -16,9 +31,11 @@ public class Parser {
     }
 
     private Statement declaration() {
+        int line = tokens.peekLine();
         try {
-            if(match(TokenType.VAR)) return variableDeclaration();
-            return statement();
+            Statement statement = match(TokenType.VAR) ? variableDeclaration() : statement();
+            statement.line = line;
+            return statement;
         } catch (ParseError error) {
             synchronize();
             return null;
@@ -27,6 +44,8 @@ public class Parser {
 
     private Statement statement() {
         if(match(TokenType.PRINT)) return printStatement();
+        if(match(TokenType.FOR)) return forStatement();
+        if(match(TokenType.READ)) return readStatement();
 
         return expressionStatement();
     }
@@ -37,6 +56,33 @@ public class Parser {
         return new Statement.PrintStatement(value);
     }
 
+    private Statement forStatement() {
+        consume(TokenType.IDENTIFIER, "Expect variable name after 'for'.");
+        Token variable = previous();
+        consume(TokenType.IN, "Expect 'in' after loop variable.");
+        Expression start = expression();
+        consume(TokenType.SPREAD, "Expect '..' between the range bounds.");
+        Expression end = expression();
+        consume(TokenType.DO, "Expect 'do' after range.");
+
+        List<Statement> body = new ArrayList<>();
+        while(!check(TokenType.END) && !isAtEnd()) {
+            body.add(declaration());
+        }
+        consume(TokenType.END, "Expect 'end for' after loop body.");
+        consume(TokenType.FOR, "Expect 'for' after 'end'.");
+        consume(TokenType.SEMICOLON, "Expect ';' after 'end for'.");
+        return new Statement.ForStatement(variable, start, end, body.toArray(new Statement[0]));
+    }
+
+    private Statement readStatement() {
+        Token keyword = previous();
+        consume(TokenType.IDENTIFIER, "Expect variable name after 'read'.");
+        Token name = previous();
+        consume(TokenType.SEMICOLON, "Expect ';' after read statement.");
+        return new Statement.ReadStatement(keyword, name);
+    }
+
     private Statement expressionStatement() {
         Expression expression = expression();
         consume(TokenType.SEMICOLON, "Expect ';' after expression.");
@@ -62,18 +108,26 @@ public class Parser {
     }
 
     private Statement variableDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        consume(TokenType.IDENTIFIER, "Expect variable name.");
+        Token name = previous();
+
+        // The type can be left out when there is an initializer, then the
+        // TypeChecker infers it from the initializer.
+        Token type = null;
+        if(match(TokenType.COLON)) {
+            if(!match(TokenType.INT, TokenType.STRING, TokenType.BOOL)) {
+                throw error(peek(), "Expect type after ':'.");
+            }
+            type = previous();
+        }
 
         Expression initializer = null;
-        // This actually omits the type definition for now and looks straight
-        // for the ASSIGN operator to detect variable declarations.
-        // TODO: add types
         if(match(TokenType.ASSIGN)) {
             initializer = expression();
         }
 
         consume(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
-        return new Statement.VariableStatement(name, initializer);
+        return new Statement.VariableStatement(name, type, initializer);
     }
 
     private Expression equality() {
@@ -154,14 +208,19 @@ public class Parser {
         throw error(peek(), "Expect expression.");
     }
 
-    private Token consume(TokenType type, String message) {
-        if(check(type)) return advance();
+    // Only the types of the tokens are looked at until a node needs the token
+    // itself, then it is fetched with previous()
+    private void consume(TokenType type, String message) {
+        if(check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        CompilerMain.error(token, message);
+        diagnostics.error(token, message);
         return new ParseError();
     }
 
@@ -176,13 +235,14 @@ public class Parser {
         // In MiniPL actually the semicolon recognition is enough because they 
         // are mandatory in the syntax.
         while(!isAtEnd()) {
-            if(previous().type == TokenType.SEMICOLON) return;
+            if(tokens.previousType() == TokenType.SEMICOLON) return;
 
-            switch(peek().type) {
+            switch(tokens.peekType()) {
                 case VAR:
                 case FOR: // This is not actually always the start of a new expression, but can be "end for"
-                    if(previous().type != TokenType.END) return;
+                    if(tokens.previousType() != TokenType.END) return;
                 case PRINT:
+                case READ:
                 case ASSERT:
                     return;
             }
@@ -191,6 +251,20 @@ public class Parser {
         }
     }
 
+    // The one and two type versions are what the expression rules use, they
+    // avoid allocating a varargs array for every token
+    private boolean match(TokenType type) {
+        if(check(type)) {
+            advance();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean match(TokenType first, TokenType second) {
+        return match(first) || match(second);
+    }
+
     private boolean match(TokenType... tokenTypes) {
         for(TokenType type : tokenTypes) {
             if(check(type)) {
@@ -204,26 +278,36 @@ public class Parser {
 
     private boolean check(TokenType type) {
         if(isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.peekType() == type;
     }
 
-    private Token advance() {
-        if(!isAtEnd()) current++;
-        return previous();
+    private void advance() {
+        if(!isAtEnd()) tokens.advance();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.peekType() == TokenType.EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.peek();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
+    }
+
+
+    // One top-level statement at a time, for the IncrementalParser which needs
+    // to know where every statement ends. Null after an error, like in the
+    // list of parseTokens().
+    Statement parseDeclaration() {
+        return declaration();
     }
 
+    boolean hasMoreTokens() {
+        return !isAtEnd();
+    }
 
     // Take in an array of TOKENS, and create a tree structure
     public List<Statement> parseTokens() {
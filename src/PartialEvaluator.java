@@ -0,0 +1,383 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the parts of a checked program that don't depend on the input at
+// compile time. It is run before the Optimizer, and returns a residual program
+// that prints the same thing as the original one but only does the work that
+// needs the input.
+//
+// The statements are executed in order, with the values of the variables that
+// are known so far. A statement that reads a variable whose value isn't known,
+// or a read statement, is kept for the engine instead, and the variables it
+// writes aren't known any more after it. So is a statement that would be a
+// runtime error, which is left for the engine to report, and a for loop whose
+// body has such a statement anywhere, as a whole.
+//
+// What the executed statements print is kept, and put into the residual as
+// print statements of string literals right before the next statement that is
+// kept, so the output comes out in the same order. A program that never reads
+// is only these prints, which the OutputSink writes out in one go. Before a
+// kept statement, the variables it uses that were computed here are declared
+// with their values, or assigned them if they have changed since they were
+// declared.
+//
+// The work done here is limited, so that a program that loops forever or
+// prints a lot can't hang the compiler: once the limits are reached, the rest
+// of the program is left to the engine. Strings longer than MAX_STRING are
+// never made into literals, the JVM can't have longer constants.
+class PartialEvaluator implements Expression.Visitor<Object>, Statement.Visitor<Void> {
+    // Statements and loop iterations executed for the whole program
+    private static final long MAX_STEPS = 1_000_000;
+    // Characters of output computed for the whole program
+    private static final int MAX_OUTPUT = 1 << 20;
+    private static final int MAX_STRING = 16 * 1024;
+    private static final String NEWLINE = System.lineSeparator();
+
+    // Thrown when the statement being executed needs something that is only
+    // known when the program runs
+    private static class NotKnown extends RuntimeException {
+        NotKnown() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final NotKnown NOT_KNOWN = new NotKnown();
+
+    // The value of every variable, or null if it isn't known
+    private final Object[] values;
+    // The residual declares the variable, and its value there is older than
+    // the one in values
+    private final boolean[] declared;
+    private final boolean[] stale;
+    // The name and the declared type of every variable that has been written
+    private final Token[] names;
+    private final Token[] types;
+
+    private final List<Statement> residual = new ArrayList<>();
+    // The lines printed since the last statement that was kept, and the line
+    // of the statement that printed the first of them
+    private final List<String> output = new ArrayList<>();
+    private int outputLine;
+    private int outputLength = 0;
+    private long steps = 0;
+
+    // The old values of the variables the statement being executed has
+    // written, to undo them if it has to be kept after all
+    private final int[] writtenBy;
+    private int attempt = 0;
+    private int[] undoSlots = new int[16];
+    private Object[] undoValues = new Object[16];
+    private boolean[] undoStale = new boolean[16];
+    private int undoCount;
+
+    PartialEvaluator(int variableCount) {
+        this.values = new Object[variableCount];
+        this.declared = new boolean[variableCount];
+        this.stale = new boolean[variableCount];
+        this.names = new Token[variableCount];
+        this.types = new Token[variableCount];
+        this.writtenBy = new int[variableCount];
+    }
+
+    public Program evaluate(Program program) {
+        for(Statement statement : program.statements) {
+            if(!tryExecute(statement)) keep(statement);
+        }
+        flushOutput();
+        return new Program(residual, program.variableCount);
+    }
+
+    private boolean tryExecute(Statement statement) {
+        attempt++;
+        undoCount = 0;
+        int lines = output.size();
+        int length = outputLength;
+        try {
+            execute(statement);
+            return true;
+        } catch (NotKnown | RuntimeError e) {
+            for(int i = undoCount - 1; i >= 0; i--) {
+                values[undoSlots[i]] = undoValues[i];
+                stale[undoSlots[i]] = undoStale[i];
+            }
+            output.subList(lines, output.size()).clear();
+            outputLength = length;
+            return false;
+        }
+    }
+
+    private void keep(Statement statement) {
+        flushOutput();
+        Slots slots = new Slots(statement);
+        for(int slot : slots.used) {
+            if(values[slot] != null) materialize(slot, statement.line);
+        }
+        residual.add(statement);
+        for(int slot : slots.written) {
+            values[slot] = null;
+            declared[slot] = true;
+            stale[slot] = false;
+        }
+    }
+
+    // Gives the variable its known value in the residual
+    private void materialize(int slot, int line) {
+        Object value = values[slot];
+        ValueType type = value instanceof Long ? ValueType.INT
+            : value instanceof Boolean ? ValueType.BOOL
+            : ValueType.STRING;
+        Statement statement;
+        if(!declared[slot]) {
+            Statement.VariableStatement declaration =
+                new Statement.VariableStatement(names[slot], types[slot], literal(value, type));
+            declaration.slot = slot;
+            declaration.valueType = type;
+            statement = declaration;
+        } else if(stale[slot]) {
+            Expression.Assign assign = new Expression.Assign(names[slot], literal(value, type));
+            assign.slot = slot;
+            assign.type = type;
+            statement = new Statement.ExpressionStatement(assign);
+        } else {
+            return;
+        }
+        statement.line = line;
+        residual.add(statement);
+        declared[slot] = true;
+        stale[slot] = false;
+    }
+
+    // The lines printed so far as print statements. Every literal is kept
+    // under MAX_STRING characters, a single line always is.
+    private void flushOutput() {
+        if(output.isEmpty()) return;
+        StringBuilder text = new StringBuilder(output.get(0));
+        for(String line : output.subList(1, output.size())) {
+            if(text.length() + NEWLINE.length() + line.length() > MAX_STRING) {
+                printLiteral(text.toString());
+                text.setLength(0);
+            } else {
+                text.append(NEWLINE);
+            }
+            text.append(line);
+        }
+        printLiteral(text.toString());
+        output.clear();
+    }
+
+    private void printLiteral(String text) {
+        Statement print = new Statement.PrintStatement(literal(text, ValueType.STRING));
+        print.line = outputLine;
+        residual.add(print);
+    }
+
+    private static Expression.Literal literal(Object value, ValueType type) {
+        // Literals hold Strings, not the Ropes that '+' makes
+        if(value instanceof CharSequence) value = value.toString();
+        Expression.Literal literal = new Expression.Literal(value);
+        literal.type = type;
+        return literal;
+    }
+
+    private void step() {
+        if(++steps > MAX_STEPS) throw NOT_KNOWN;
+    }
+
+    private void write(int slot, Token name, Object value) {
+        if(writtenBy[slot] != attempt) {
+            writtenBy[slot] = attempt;
+            if(undoCount == undoSlots.length) {
+                undoSlots = Arrays.copyOf(undoSlots, undoCount * 2);
+                undoValues = Arrays.copyOf(undoValues, undoCount * 2);
+                undoStale = Arrays.copyOf(undoStale, undoCount * 2);
+            }
+            undoSlots[undoCount] = slot;
+            undoValues[undoCount] = values[slot];
+            undoStale[undoCount] = stale[slot];
+            undoCount++;
+        }
+        values[slot] = value;
+        names[slot] = name;
+        if(declared[slot]) stale[slot] = true;
+    }
+
+    private void execute(Statement statement) {
+        step();
+        statement.accept(this);
+    }
+
+    private Object evaluate(Expression expression) {
+        return expression.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        evaluate(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        String line = evaluate(statement.expression).toString();
+        if(outputLength + line.length() > MAX_OUTPUT) throw NOT_KNOWN;
+        if(output.isEmpty()) outputLine = statement.line;
+        output.add(line);
+        outputLength += line.length();
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStatement(Statement.VariableStatement statement) {
+        Object value = statement.initializer != null
+            ? evaluate(statement.initializer)
+            : statement.valueType.defaultValue();
+        types[statement.slot] = statement.type;
+        write(statement.slot, statement.name, value);
+        return null;
+    }
+
+    // The same loop as in the Interpreter
+    @Override
+    public Void visitForStatement(Statement.ForStatement statement) {
+        long counter = (long)evaluate(statement.start);
+        long end = (long)evaluate(statement.end);
+        while(counter <= end) {
+            step();
+            write(statement.slot, statement.variable, counter);
+            for(Statement bodyStatement : statement.body) {
+                execute(bodyStatement);
+            }
+            counter++;
+            if(counter == Long.MIN_VALUE) break;
+        }
+        write(statement.slot, statement.variable, counter);
+        return null;
+    }
+
+    @Override
+    public Void visitReadStatement(Statement.ReadStatement statement) {
+        throw NOT_KNOWN;
+    }
+
+    @Override
+    public Object visitUnaryExpression(Expression.Unary expression) {
+        return Operators.unary(expression.operator, evaluate(expression.expression));
+    }
+
+    @Override
+    public Object visitBinaryExpression(Expression.Binary expression) {
+        Object left = evaluate(expression.leftExpression);
+        Object right = evaluate(expression.rightExpression);
+        Object value = Operators.binary(expression.operator, left, right);
+        if(value instanceof CharSequence && ((CharSequence)value).length() > MAX_STRING) throw NOT_KNOWN;
+        return value;
+    }
+
+    @Override
+    public Object visitLiteralExpression(Expression.Literal expression) {
+        return expression.value;
+    }
+
+    @Override
+    public Object visitGroupingExpression(Expression.Grouping expression) {
+        return evaluate(expression.expression);
+    }
+
+    @Override
+    public Object visitVariableExpression(Expression.Variable expression) {
+        Object value = values[expression.slot];
+        if(value == null) throw NOT_KNOWN;
+        return value;
+    }
+
+    @Override
+    public Object visitAssignExpression(Expression.Assign expression) {
+        Object value = evaluate(expression.value);
+        write(expression.slot, expression.name, value);
+        return value;
+    }
+
+    // The slots a kept statement reads or writes, and those it writes
+    private static class Slots implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+        final List<Integer> used = new ArrayList<>();
+        final List<Integer> written = new ArrayList<>();
+
+        Slots(Statement statement) {
+            statement.accept(this);
+        }
+
+        private void write(int slot) {
+            used.add(slot);
+            written.add(slot);
+        }
+
+        @Override
+        public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+            return statement.expression.accept(this);
+        }
+
+        @Override
+        public Void visitPrintStatement(Statement.PrintStatement statement) {
+            return statement.expression.accept(this);
+        }
+
+        @Override
+        public Void visitVariableStatement(Statement.VariableStatement statement) {
+            if(statement.initializer != null) statement.initializer.accept(this);
+            write(statement.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitForStatement(Statement.ForStatement statement) {
+            statement.start.accept(this);
+            statement.end.accept(this);
+            write(statement.slot);
+            for(Statement bodyStatement : statement.body) {
+                bodyStatement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitReadStatement(Statement.ReadStatement statement) {
+            write(statement.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpression(Expression.Unary expression) {
+            return expression.expression.accept(this);
+        }
+
+        @Override
+        public Void visitBinaryExpression(Expression.Binary expression) {
+            expression.leftExpression.accept(this);
+            return expression.rightExpression.accept(this);
+        }
+
+        @Override
+        public Void visitLiteralExpression(Expression.Literal expression) {
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpression(Expression.Grouping expression) {
+            return expression.expression.accept(this);
+        }
+
+        @Override
+        public Void visitVariableExpression(Expression.Variable expression) {
+            used.add(expression.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.Assign expression) {
+            expression.value.accept(this);
+            write(expression.slot);
+            return null;
+        }
+    }
+}
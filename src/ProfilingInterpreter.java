@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The Interpreter with a profiler, used with --profile. Every statement that
+// is executed is counted and timed, both by the line it starts on and by its
+// kind, and report() lists the lines that took the most time.
+//
+// The time of a statement includes the statements in its body, so the line of
+// a for loop has the time of the whole loop. The plain Interpreter knows
+// nothing about this, so a run without --profile pays nothing for it.
+public class ProfilingInterpreter extends Interpreter {
+    private static final String[] KINDS = { "expression", "print", "var", "for", "read" };
+    // How many of the lines are listed in the report
+    private static final int HOT_LINES = 20;
+
+    private final boolean emitEvents;
+    // Indexed by line number
+    private long[] lineCounts = new long[64];
+    private long[] lineNanos = new long[64];
+    // Indexed like KINDS
+    private final long[] kindCounts = new long[KINDS.length];
+    private final long[] kindNanos = new long[KINDS.length];
+    private long statements = 0;
+    // The time of the top level statements, the bodies are already in it
+    private long totalNanos = 0;
+    private int depth = 0;
+
+    ProfilingInterpreter(OutputSink out, InputSource in, Fuel fuel, Diagnostics diagnostics, boolean emitEvents) {
+        super(out, in, fuel, diagnostics);
+        this.emitEvents = emitEvents;
+    }
+
+    @Override
+    void execute(Statement statement) {
+        int line = statement.line;
+        if(line >= lineCounts.length) {
+            int length = Math.max(line + 1, lineCounts.length * 2);
+            lineCounts = Arrays.copyOf(lineCounts, length);
+            lineNanos = Arrays.copyOf(lineNanos, length);
+        }
+        int kind = kind(statement);
+
+        StatementEvent event = null;
+        if(emitEvents) {
+            event = new StatementEvent();
+            event.begin();
+        }
+        depth++;
+        long start = System.nanoTime();
+        try {
+            super.execute(statement);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            depth--;
+            if(depth == 0) totalNanos += elapsed;
+            lineCounts[line]++;
+            lineNanos[line] += elapsed;
+            kindCounts[kind]++;
+            kindNanos[kind] += elapsed;
+            statements++;
+            if(event != null) {
+                event.line = line;
+                event.kind = KINDS[kind];
+                event.commit();
+            }
+        }
+    }
+
+    private static int kind(Statement statement) {
+        if(statement instanceof Statement.ExpressionStatement) return 0;
+        if(statement instanceof Statement.PrintStatement) return 1;
+        if(statement instanceof Statement.VariableStatement) return 2;
+        if(statement instanceof Statement.ForStatement) return 3;
+        return 4;
+    }
+
+    // The hot spots, slowest line first, and the time spent in every kind of
+    // statement
+    String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Profile: %d statements in %.3f ms%n", statements, totalNanos / 1e6));
+
+        List<Integer> lines = new ArrayList<>();
+        for(int line = 0; line < lineCounts.length; line++) {
+            if(lineCounts[line] > 0) lines.add(line);
+        }
+        lines.sort((a, b) -> Long.compare(lineNanos[b], lineNanos[a]));
+
+        report.append(String.format("%10s %12s %12s %8s%n", "line", "count", "total ms", "%"));
+        for(int line : lines.subList(0, Math.min(HOT_LINES, lines.size()))) {
+            report.append(String.format("%10d %12d %12.3f %7.1f%%%n",
+                line, lineCounts[line], lineNanos[line] / 1e6, percent(lineNanos[line])));
+        }
+
+        report.append(String.format("%10s %12s %12s %8s%n", "kind", "count", "total ms", "%"));
+        for(int kind = 0; kind < KINDS.length; kind++) {
+            if(kindCounts[kind] == 0) continue;
+            report.append(String.format("%10s %12d %12.3f %7.1f%%%n",
+                KINDS[kind], kindCounts[kind], kindNanos[kind] / 1e6, percent(kindNanos[kind])));
+        }
+        // No newline after the last row, info() adds one
+        return report.toString().stripTrailing();
+    }
+
+    private double percent(long nanos) {
+        return totalNanos == 0 ? 0 : 100.0 * nanos / totalNanos;
+    }
+}
@@ -0,0 +1,13 @@
+import java.util.List;
+
+// A program that has been through the whole front end: the checked statements
+// and the number of variable slots the Resolver gave out.
+public class Program {
+    final List<Statement> statements;
+    final int variableCount;
+
+    Program(List<Statement> statements, int variableCount) {
+        this.statements = statements;
+        this.variableCount = variableCount;
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// An on-disk cache of checked programs, so that running a script again that
+// hasn't changed skips the Lexer, the Parser, the Resolver and the
+// TypeChecker. A program is stored under the SHA-256 hash of its source bytes,
+// their charset, how it was optimized and the compiler version, so a
+// changed script or a new compiler never finds an old entry.
+//
+// Entries are written to a temporary file first and then moved in place, so
+// several processes can use the same cache at once and a reader never sees a
+// half written file. When the cache grows over its size limit the entries
+// used least recently are deleted.
+//
+// The keys are no secret, anyone can compute them from a source, so anyone who
+// can write into the directory could plant programs for load() to run. The
+// directory is created readable only by its owner, and one that belongs to
+// another user or that others can write into isn't used at all.
+public class ProgramCache {
+    // Has to change whenever the front end or the AstSerializer format changes
+    static final String COMPILER_VERSION = "minipl-8";
+
+    // Larger sources are compiled without the cache, so that the lexer can
+    // start on them right away. The whole source has to be hashed for the key
+    // first, in a new JVM that takes about a quarter of a second for a source
+    // of this size and almost two seconds for one of a gigabyte.
+    static final long MAX_SOURCE_BYTES = 8L * 1024 * 1024;
+
+    private static final String SUFFIX = ".ast";
+    // Temporary files older than this are left over from a crash
+    private static final long STALE_TEMPORARY_MILLIS = 60 * 60 * 1000;
+
+    private final Path directory;
+    private final long maxBytes;
+    // Whether the directory has been checked, and what the check found
+    private boolean checked = false;
+    private boolean usable = false;
+
+    ProgramCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // $XDG_CACHE_HOME/minipl, or ~/.cache/minipl, so every user has a cache
+    // of their own
+    static Path defaultDirectory() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        if(cacheHome != null && !cacheHome.isEmpty()) return Paths.get(cacheHome, "minipl");
+        return Paths.get(System.getProperty("user.home"), ".cache", "minipl");
+    }
+
+    static String key(ByteBuffer source, Charset charset, boolean optimized, boolean precomputed) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)(optimized ? 1 : 0));
+            digest.update((byte)(precomputed ? 1 : 0));
+            digest.update(source.duplicate());
+            StringBuilder key = new StringBuilder();
+            for(byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    // Returns the cached program, or null if there is none. A broken entry is
+    // deleted and treated as missing.
+    Program load(String key) {
+        if(!usable()) return null;
+        Path file = directory.resolve(key + SUFFIX);
+        try {
+            Program program = AstSerializer.read(ByteBuffer.wrap(Files.readAllBytes(file)));
+            // The modification time is used as the last use for the eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return program;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Another process may be replacing it right now
+            }
+            return null;
+        }
+    }
+
+    // Stores a program. The cache is only an optimization, so failing to
+    // write it is not an error.
+    void store(String key, Program program) {
+        if(!usable()) return;
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(directory, key, ".tmp");
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                AstSerializer.write(program, out);
+            }
+
+            Path file = directory.resolve(key + SUFFIX);
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temporary = null;
+            evict();
+        } catch (IOException e) {
+            // Leave the program uncached
+        } finally {
+            if(temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // Removed as stale later
+                }
+            }
+        }
+    }
+
+    // Creates the directory if it doesn't exist yet, and checks that it
+    // belongs to this user and that no one else can write into it
+    private boolean usable() {
+        if(checked) return usable;
+        checked = true;
+        try {
+            boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+            if(!Files.isDirectory(directory)) {
+                Files.createDirectories(directory.toAbsolutePath().getParent());
+                try {
+                    if(posix) {
+                        Files.createDirectory(directory,
+                            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                    } else {
+                        Files.createDirectory(directory);
+                    }
+                } catch (FileAlreadyExistsException e) {
+                    // Created by another process in the meantime, checked below
+                }
+            }
+            UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+            if(!Files.getOwner(directory).equals(user)) return false;
+            if(posix) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory);
+                if(permissions.contains(PosixFilePermission.GROUP_WRITE)
+                        || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    return false;
+                }
+            }
+            usable = true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Run without the cache
+        }
+        return usable;
+    }
+
+    private static class Entry {
+        final Path file;
+        final long size;
+        final long lastUsed;
+
+        Entry(Path file, long size, long lastUsed) {
+            this.file = file;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // Deletes the least recently used entries until the cache fits in its size
+    private void evict() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try(Stream<Path> files = Files.list(directory)) {
+            for(Path file : (Iterable<Path>)files::iterator) {
+                try {
+                    long lastUsed = Files.getLastModifiedTime(file).toMillis();
+                    if(file.toString().endsWith(".tmp")) {
+                        if(now - lastUsed > STALE_TEMPORARY_MILLIS) Files.deleteIfExists(file);
+                        continue;
+                    }
+                    if(!file.toString().endsWith(SUFFIX)) continue;
+                    long size = Files.size(file);
+                    entries.add(new Entry(file, size, lastUsed));
+                    total += size;
+                } catch (NoSuchFileException e) {
+                    // Evicted by another process in the meantime
+                }
+            }
+        }
+        if(total <= maxBytes) return;
+
+        entries.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+        for(Entry entry : entries) {
+            if(total <= maxBytes) break;
+            Files.deleteIfExists(entry.file);
+            total -= entry.size;
+        }
+    }
+}
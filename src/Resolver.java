@@ -0,0 +1,166 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A static pass that is run between the Parser and the execution. It walks the
+// whole program once and gives every variable a fixed slot number, which is
+// stored in the Variable, Assign and VariableStatement nodes. At run time the
+// variables can then be kept in a flat array and no names need to be looked up.
+//
+// The statements are executed in order, so using a variable before its
+// declaration can be reported here already, instead of waiting for the
+// interpreter to run into it. A variable declared in the body of a for loop
+// can only be used in that body: the body may never run, and then the
+// variable would never be given a value. Every declaration gets a slot of its
+// own, a slot is never shared by two variables.
+public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private int slotCount = 0;
+    // The for statements whose body is being resolved, innermost last
+    private final List<Statement.ForStatement> loops = new ArrayList<>();
+    // The names declared by the body of each of those loops
+    private final List<List<String>> bodyNames = new ArrayList<>();
+    private final Diagnostics diagnostics;
+
+    Resolver(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    // Returns the number of slots the program needs
+    public int resolve(List<Statement> statements) {
+        for(Statement statement : statements) {
+            resolve(statement);
+        }
+        return slotCount;
+    }
+
+    private void resolve(Statement statement) {
+        statement.accept(this);
+    }
+
+    private void resolve(Expression expression) {
+        expression.accept(this);
+    }
+
+    private int lookUp(Token name) {
+        Integer slot = slots.get(name.lexeme);
+        if(slot == null) {
+            diagnostics.error(name, "Undefined variable '" + name.lexeme + "'.");
+            return -1;
+        }
+        return slot;
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        resolve(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        resolve(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStatement(Statement.VariableStatement statement) {
+        // The initializer is resolved first, so it can't refer to the variable
+        // that is being declared.
+        if(statement.initializer != null) {
+            resolve(statement.initializer);
+        }
+
+        // Declaring the same name again reuses its slot, like defining it
+        // again in the Environment used to do.
+        Integer slot = slots.get(statement.name.lexeme);
+        if(slot == null) {
+            slot = slotCount++;
+            slots.put(statement.name.lexeme, slot);
+            if(!bodyNames.isEmpty()) bodyNames.get(bodyNames.size() - 1).add(statement.name.lexeme);
+        }
+        statement.slot = slot;
+        checkNotLoopVariable(statement.name, slot);
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(Statement.ForStatement statement) {
+        resolve(statement.start);
+        resolve(statement.end);
+        statement.slot = lookUp(statement.variable);
+        checkNotLoopVariable(statement.variable, statement.slot);
+
+        statement.bodyReadsVariable = false;
+        loops.add(statement);
+        bodyNames.add(new ArrayList<>());
+        for(Statement bodyStatement : statement.body) {
+            resolve(bodyStatement);
+        }
+        // The names the body declared go out of scope at 'end for'
+        for(String name : bodyNames.remove(bodyNames.size() - 1)) {
+            slots.remove(name);
+        }
+        loops.remove(loops.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitReadStatement(Statement.ReadStatement statement) {
+        statement.slot = lookUp(statement.name);
+        checkNotLoopVariable(statement.name, statement.slot);
+        return null;
+    }
+
+    // The variable of a for statement can't be changed inside its body
+    private void checkNotLoopVariable(Token name, int slot) {
+        for(Statement.ForStatement loop : loops) {
+            if(loop.slot == slot) {
+                diagnostics.error(name, "Cannot assign to loop variable '" + name.lexeme + "' inside the loop.");
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        resolve(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        resolve(expression.leftExpression);
+        resolve(expression.rightExpression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        resolve(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        expression.slot = lookUp(expression.name);
+        for(Statement.ForStatement loop : loops) {
+            if(loop.slot == expression.slot) loop.bodyReadsVariable = true;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression) {
+        resolve(expression.value);
+        expression.slot = lookUp(expression.name);
+        checkNotLoopVariable(expression.name, expression.slot);
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+// The value of a string built with '+'. Concatenating two Java Strings copies
+// both of them, so a loop that appends to a string again and again would take
+// time quadratic in the length of the result.
+//
+// A Rope is the first characters of a StringBuilder that it shares with the
+// strings it was built from. Appending to the newest string of a builder adds
+// the characters at the end of that builder, and the older strings still only
+// see their own first characters, so a loop of s := s + x is linear. Only
+// appending to an older string, when the same string is extended in two
+// different ways, copies it into a new builder.
+//
+// Like Strings, Ropes never change. All engines treat string values as
+// CharSequences, and a Rope is only turned into a String when something
+// needs one.
+final class Rope implements CharSequence {
+    // Shorter results are plain Strings, a builder isn't worth it for them
+    private static final int MIN_LENGTH = 32;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String string;
+
+    private Rope(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if(right.length() == 0) return left;
+        if(left.length() == 0) return right;
+
+        int length = left.length() + right.length();
+        if(left instanceof Rope) {
+            Rope rope = (Rope)left;
+            if(rope.builder.length() == rope.length) {
+                // s + s reads the builder while it is being appended to
+                if(right instanceof Rope && ((Rope)right).builder == rope.builder) right = right.toString();
+                rope.builder.append(right);
+                return new Rope(rope.builder, length);
+            }
+        } else if(length < MIN_LENGTH) {
+            return left.toString().concat(right.toString());
+        }
+
+        StringBuilder builder = new StringBuilder(length * 2);
+        builder.append(left).append(right);
+        return new Rope(builder, length);
+    }
+
+    // The equality of MiniPL strings, for Strings and Ropes alike
+    static boolean contentEquals(CharSequence a, CharSequence b) {
+        if(a == b) return true;
+        if(a instanceof String && b instanceof String) return a.equals(b);
+        int length = a.length();
+        if(b.length() != length) return false;
+        for(int i = 0; i < length; i++) {
+            if(a.charAt(i) != b.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return builder.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if(string == null) string = builder.substring(0, length);
+        return string;
+    }
+}
@@ -5,4 +5,10 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    // For errors that belong to a whole statement rather than one token, like
+    // running out of fuel. Only the line of the token is reported.
+    RuntimeError(int line, String message) {
+        this(new Token(TokenType.EOF, "", null, line), message);
+    }
 }
@@ -0,0 +1,52 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+// Runs a script on a ScriptServer, as if it was run by this JVM. What the
+// script prints is copied to the given streams, and when the script reads,
+// the server asks for more of the input stream.
+public class ScriptClient {
+    private final SocketAddress address;
+
+    ScriptClient(SocketAddress address) {
+        this.address = address;
+    }
+
+    public void run(byte[] source, List<String> arguments, InputStream in, OutputStream out, OutputStream err)
+            throws IOException {
+        try(ScriptServer.Connection connection = new ScriptServer.Connection(SocketChannel.open(address))) {
+            byte[] request = ScriptServer.request(arguments, source);
+            connection.send(ScriptServer.REQUEST, request, 0, request.length);
+
+            byte[] buffer = new byte[0];
+            while(true) {
+                byte type = connection.receive();
+                byte[] payload = connection.payload();
+                if(type == ScriptServer.OUTPUT) {
+                    out.write(payload);
+                    out.flush();
+                } else if(type == ScriptServer.ERROR) {
+                    err.write(payload);
+                    err.flush();
+                } else if(type == ScriptServer.INPUT_REQUEST) {
+                    // As much as the server has room for, but only what the
+                    // stream has ready, so that typed lines go one at a time
+                    int size = ByteBuffer.wrap(payload).getInt();
+                    if(buffer.length < size) buffer = new byte[size];
+                    int count = in.read(buffer, 0, size);
+                    if(count < 0) {
+                        connection.send(ScriptServer.INPUT_END);
+                    } else {
+                        connection.send(ScriptServer.INPUT, buffer, 0, count);
+                    }
+                } else if(type == ScriptServer.EXIT) {
+                    return;
+                }
+            }
+        }
+    }
+}
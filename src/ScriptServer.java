@@ -0,0 +1,364 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Keeps one JVM running and runs the scripts that ScriptClients send to it,
+// so a script doesn't pay for starting a JVM and runs on code that the JIT has
+// already compiled. It listens on a Unix domain socket, or on a TCP port of
+// the loopback address.
+//
+// Every connection runs one script on a thread of its own, with its own
+// options, Diagnostics, engine, output and input, like the scripts of the
+// BatchRunner. Java 17 has no virtual threads, so the threads come from a
+// cached pool that reuses the threads of finished scripts. A script that
+// waits for input only holds its own thread.
+//
+// Both ends send frames of a type byte, a length and that many bytes. The
+// client sends a REQUEST with the options and the source. The server answers
+// with OUTPUT and ERROR frames as the script prints, asks for input with
+// INPUT_REQUEST when the script reads, and ends with EXIT. The client only
+// sends INPUT or INPUT_END when it is asked to, so the server never closes a
+// connection with input it hasn't read.
+//
+// A client only chooses how its script runs: the engine, the limits, the
+// output and the listings. Everything else, like where the cache is, is the
+// server's own. Otherwise a client could make the server write into, and evict
+// files from, any directory the server can write into. The socket is only
+// open to the user who started the server, a TCP port to anyone on the
+// machine.
+public class ScriptServer {
+    static final byte REQUEST = 1;
+    static final byte OUTPUT = 2;
+    static final byte ERROR = 3;
+    static final byte INPUT_REQUEST = 4;
+    static final byte INPUT = 5;
+    static final byte INPUT_END = 6;
+    static final byte EXIT = 7;
+
+    // The options a client may give, the ones that take a value end with '='
+    private static final List<String> RUN_OPTIONS = List.of("--vm", "--specialize", "--table-lexer",
+        "--flush=", "--max-steps=", "--timeout=", "--profile", "--profile-jfr", "--dump-optimized",
+        "--debug-tokens", "--no-optimize", "--no-precompute");
+
+    private final SocketAddress address;
+    // The options the server was started with
+    private final CompilerMain.Options serverOptions;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    ScriptServer(SocketAddress address, CompilerMain.Options serverOptions) {
+        this.address = address;
+        this.serverOptions = serverOptions;
+    }
+
+    // The address given by --port or --socket
+    static SocketAddress address(CompilerMain.Options options) {
+        if(options.port > 0) return new InetSocketAddress(InetAddress.getLoopbackAddress(), options.port);
+        return UnixDomainSocketAddress.of(options.socketPath);
+    }
+
+    // $XDG_RUNTIME_DIR/minipl.sock, or ~/.minipl.sock, so every user has a
+    // server of their own
+    static Path defaultSocket() {
+        String runtimeDirectory = System.getenv("XDG_RUNTIME_DIR");
+        if(runtimeDirectory != null && !runtimeDirectory.isEmpty()) return Paths.get(runtimeDirectory, "minipl.sock");
+        return Paths.get(System.getProperty("user.home"), ".minipl.sock");
+    }
+
+    static boolean isRunOption(String arg) {
+        for(String option : RUN_OPTIONS) {
+            if(option.endsWith("=") ? arg.startsWith(option) : arg.equals(option)) return true;
+        }
+        return false;
+    }
+
+    // The frames of one connection
+    static class Connection implements Closeable {
+        private final SocketChannel channel;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            this.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        }
+
+        void send(byte type, byte[] bytes, int offset, int length) throws IOException {
+            output.writeByte(type);
+            output.writeInt(length);
+            output.write(bytes, offset, length);
+            output.flush();
+        }
+
+        void send(byte type) throws IOException {
+            send(type, new byte[0], 0, 0);
+        }
+
+        // Reads the type of the next frame, its bytes are read with payload()
+        byte receive() throws IOException {
+            return input.readByte();
+        }
+
+        byte[] payload() throws IOException {
+            return input.readNBytes(input.readInt());
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public void serve() throws IOException {
+        ServerSocketChannel server;
+        if(address instanceof UnixDomainSocketAddress) {
+            Path path = ((UnixDomainSocketAddress)address).getPath();
+            removeStaleSocket(path);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(address);
+            if(path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // Nothing to do, the JVM is going away
+                }
+            }));
+        } else {
+            server = ServerSocketChannel.open();
+            server.bind(address);
+        }
+        System.out.println("Listening on " + address);
+
+        ExecutorService pool = Executors.newCachedThreadPool(run -> {
+            Thread thread = new Thread(run, "minipl-script-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            while(true) {
+                SocketChannel channel = server.accept();
+                pool.execute(() -> handle(channel));
+            }
+        } finally {
+            pool.shutdown();
+            server.close();
+        }
+    }
+
+    // Deletes a socket file left behind by a server that was killed. A socket
+    // that a server still listens on is its socket, and a file that isn't a
+    // socket isn't the server's to delete.
+    private static void removeStaleSocket(Path path) throws IOException {
+        if(!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return;
+        if(!Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+            throw new IOException(path + " exists and is not a socket");
+        }
+        try(SocketChannel running = SocketChannel.open(UnixDomainSocketAddress.of(path))) {
+            throw new IOException("a server is already listening on " + path);
+        } catch (ConnectException e) {
+            Files.delete(path);
+        }
+    }
+
+    // Runs the script of one connection. A client that goes away in the
+    // middle only ends its own script.
+    void handle(SocketChannel channel) {
+        try(Connection connection = new Connection(channel)) {
+            if(connection.receive() != REQUEST) return;
+            DataInputStream request = new DataInputStream(new ByteArrayInputStream(connection.payload()));
+            CompilerMain.Options options = new CompilerMain.Options();
+            options.useCache = serverOptions.useCache;
+            options.cacheDirectory = serverOptions.cacheDirectory;
+            options.cacheBytes = serverOptions.cacheBytes;
+            String error = null;
+            int argumentCount = request.readInt();
+            for(int i = 0; i < argumentCount; i++) {
+                String argument = request.readUTF();
+                if(!isRunOption(argument)) {
+                    error = argument + " can't be given to the server.";
+                    continue;
+                }
+                try {
+                    options.parse(argument);
+                } catch (IllegalArgumentException e) {
+                    error = e.getMessage();
+                }
+            }
+            byte[] source = request.readNBytes(request.readInt());
+
+            if(error != null) {
+                byte[] message = (error + System.lineSeparator()).getBytes(Charset.defaultCharset());
+                connection.send(ERROR, message, 0, message.length);
+            } else {
+                run(connection, options, source);
+            }
+            connection.send(EXIT);
+        } catch (IOException | UncheckedIOException e) {
+            // The client is gone, there is no one to tell
+        }
+    }
+
+    private static void run(Connection connection, CompilerMain.Options options, byte[] source) {
+        Charset charset = Charset.defaultCharset();
+        OutputSink out = new OutputSink(new FrameChannel(connection), options.flushPolicy, options.flushBytes,
+            OutputSink.DEFAULT_BUFFER_SIZE, charset);
+        PrintStream err = new PrintStream(new FrameStream(connection, ERROR), true, charset);
+        Diagnostics diagnostics = new Diagnostics(err);
+        InputSource in = new InputSource(new InputFrames(connection), InputSource.DEFAULT_BUFFER_SIZE, charset);
+        in.tie(out);
+
+        if(options.limitsIgnored()) {
+            err.println("Step and time limits only work with the default interpreter.");
+            return;
+        }
+        if(options.profileIgnored()) {
+            err.println("--profile only works with the default interpreter.");
+            return;
+        }
+        try {
+            PrintStream listing = new PrintStream(new BufferedOutputStream(new FrameStream(connection, OUTPUT)),
+                false, charset);
+            Program program = CompilerMain.prepare(source, options, listing, diagnostics);
+            listing.flush();
+            if(program != null) CompilerMain.execute(program, options, out, in, diagnostics);
+        } catch (RuntimeException | StackOverflowError e) {
+            out.flush();
+            err.println("failed: " + e);
+        }
+        out.flush();
+    }
+
+    // Sends what the OutputSink writes out as OUTPUT frames
+    private static class FrameChannel implements WritableByteChannel {
+        private final Connection connection;
+
+        FrameChannel(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int write(ByteBuffer bytes) throws IOException {
+            int count = bytes.remaining();
+            connection.send(OUTPUT, bytes.array(), bytes.arrayOffset() + bytes.position(), count);
+            bytes.position(bytes.limit());
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // The connection is closed by the server
+        }
+    }
+
+    // Sends the listings and the diagnostics as frames of one type
+    private static class FrameStream extends OutputStream {
+        private final Connection connection;
+        private final byte type;
+
+        FrameStream(Connection connection, byte type) {
+            this.connection = connection;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            connection.send(type, bytes, offset, length);
+        }
+    }
+
+    // Asks the client for input when the InputSource runs out of it
+    private static class InputFrames implements ReadableByteChannel {
+        private final Connection connection;
+        private boolean atEnd = false;
+
+        InputFrames(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int read(ByteBuffer bytes) throws IOException {
+            if(atEnd) return -1;
+            byte[] size = ByteBuffer.allocate(4).putInt(bytes.remaining()).array();
+            connection.send(INPUT_REQUEST, size, 0, size.length);
+            byte type = connection.receive();
+            byte[] input = connection.payload();
+            if(type != INPUT) {
+                atEnd = true;
+                return -1;
+            }
+            bytes.put(input);
+            return input.length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // The connection is closed by the server
+        }
+    }
+
+    // The REQUEST frame of a script
+    static byte[] request(List<String> arguments, byte[] source) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(source.length + 256);
+        DataOutputStream request = new DataOutputStream(bytes);
+        try {
+            request.writeInt(arguments.size());
+            for(String argument : arguments) {
+                request.writeUTF(argument);
+            }
+            request.writeInt(source.length);
+            request.write(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
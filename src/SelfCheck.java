@@ -0,0 +1,497 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Randomized checks that the parts of the compiler which do something clever
+// give the same results as the plain way of doing the same thing. Like the
+// Benchmark it is not part of the compiler itself, run it with:
+//
+//     java -cp <classes> SelfCheck incremental [cases] [seed]
+//     java -cp <classes> SelfCheck lexers [cases] [seed]
+//     java -cp <classes> SelfCheck utf8 [cases] [seed]
+//     java -cp <classes> SelfCheck loops [cases] [seed]
+//     java -cp <classes> SelfCheck precompute [cases] [seed]
+//     java -cp <classes> SelfCheck all
+//
+// all runs every check with its default number of cases and seed. Every case
+// is made from the seed and the number of the case, and the first few failing
+// ones are printed with their source. The exit status is 1 if any case failed.
+public class SelfCheck {
+    // How many failing cases are printed in full
+    private static final int MAX_REPORTED = 3;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        if(args.length == 0) {
+            System.out.println("Usage: SelfCheck incremental|lexers|utf8|loops|precompute|all [cases] [seed]");
+            return;
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        switch(args[0]) {
+            case "incremental":
+                incremental(intArgument(args, 1, 2000), seed);
+                break;
+            case "lexers":
+                lexers(intArgument(args, 1, 100000), seed);
+                break;
+            case "utf8":
+                utf8(intArgument(args, 1, 100000), seed);
+                break;
+            case "loops":
+                loops(intArgument(args, 1, 3000), seed);
+                break;
+            case "precompute":
+                precompute(intArgument(args, 1, 3000), seed);
+                break;
+            case "all":
+                incremental(2000, 1);
+                lexers(100000, 1);
+                utf8(100000, 1);
+                loops(3000, 1);
+                precompute(3000, 1);
+                break;
+            default:
+                System.out.println("Unknown check: " + args[0]);
+                System.exit(2);
+        }
+        if(failures > 0) System.exit(1);
+    }
+
+    private static int intArgument(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    private static void report(String check, int passed, int cases) {
+        System.out.println(check + ": " + passed + " of " + cases + " cases passed");
+    }
+
+    // Prints a failing case, unless enough of them have been printed already
+    private static void fail(String check, long seed, String source, String expected, String actual) {
+        if(failures++ >= MAX_REPORTED) return;
+        System.out.println("FAILED " + check + " case " + seed + ", source:");
+        System.out.println(source);
+        System.out.println("expected:");
+        System.out.println(expected);
+        System.out.println("but got:");
+        System.out.println(actual);
+    }
+
+    // Pieces of statements, for edits and for sources that are mostly wrong
+    private static final String[] PIECES = {
+        ";", "\n", " ", "\"", "var ", "for ", "end for;", "do", "print ", "1", "x", "+", "(", ")", ":=",
+        "..", "int", ":", "read ", "end", "\n;\n", "\"a;b\"", "a\nb", "var x : int := 1;\n", "print x;",
+        "for i in 1..3 do\n", "x := x + 2", "@", "\"str\n\""
+    };
+
+    // Edits a program with the IncrementalParser and checks after some of
+    // the edits that its tree and errors are the ones of a full parse of the
+    // edited source
+    private static void incremental(int cases, long seed) {
+        int passed = 0;
+        for(int n = 0; n < cases; n++) {
+            Random random = new Random(seed + n);
+            String source = random.nextBoolean()
+                ? new ProgramGenerator(random).program()
+                : pieces(random, random.nextInt(8));
+            IncrementalParser parser = new IncrementalParser(source);
+            boolean failed = false;
+            for(int edit = 0; edit < 15 && !failed; edit++) {
+                int offset = random.nextInt(source.length() + 1);
+                int removed = random.nextInt(3) == 0 ? Math.min(source.length() - offset, random.nextInt(8)) : 0;
+                String inserted = random.nextInt(4) == 0 ? "" : PIECES[random.nextInt(PIECES.length)];
+                source = source.substring(0, offset) + inserted + source.substring(offset + removed);
+                parser.edit(offset, removed, inserted);
+
+                if(random.nextInt(3) == 0 || edit == 14) {
+                    String expected = fullParse(source);
+                    String actual = parser.source().equals(source)
+                        ? describe(parser)
+                        : "the source:\n" + parser.source();
+                    if(!actual.equals(expected)) {
+                        fail("incremental", seed + n, source, expected, actual);
+                        failed = true;
+                    }
+                }
+            }
+            if(!failed) passed++;
+        }
+        report("incremental", passed, cases);
+    }
+
+    // Characters and words that come up in MiniPL, and some that don't
+    private static final String ALPHABET = "abzAZ019 \n\t\r\"().:=;+-*/!<>&|#\0\u00e9";
+    private static final String[] WORDS = {
+        "print", "var", "for", "end", "in", "do", "read", "int", "string", "bool", "assert", "printx", "va",
+        "inn", "99999999999999999999", "9223372036854775807", "9223372036854775808", "\"abc", "\"x\ny\"",
+        "..", " ", ":=", "\n"
+    };
+
+    // Scans random text with the TableLexer and the Lexer, into a token list
+    // and into a TokenBuffer, and checks that the tokens and the errors are
+    // the same
+    private static void lexers(int cases, long seed) {
+        int passed = 0;
+        for(int n = 0; n < cases; n++) {
+            Random random = new Random(seed + n);
+            StringBuilder text = new StringBuilder();
+            for(int length = random.nextInt(40); length > 0; length--) {
+                if(random.nextInt(3) == 0) {
+                    text.append(WORDS[random.nextInt(WORDS.length)]);
+                } else {
+                    text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+            }
+            String source = text.toString();
+            String expected = scan(source, false, false) + scan(source, false, true);
+            String actual = scan(source, true, false) + scan(source, true, true);
+            if(actual.equals(expected)) {
+                passed++;
+            } else {
+                fail("lexers", seed + n, source, expected, actual);
+            }
+        }
+        report("lexers", passed, cases);
+    }
+
+    private static String scan(String source, boolean table, boolean buffer) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Diagnostics diagnostics = new Diagnostics(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        List<Token> tokens = new ArrayList<>();
+        if(buffer) {
+            TokenBuffer scanned = table
+                ? new TableLexer(source, diagnostics).scanIntoBuffer()
+                : new Lexer(source, diagnostics).scanIntoBuffer();
+            for(int i = 0; i < scanned.size(); i++) {
+                tokens.add(scanned.token(i));
+            }
+        } else {
+            tokens = table
+                ? new TableLexer(source, diagnostics).scanFileForTokens()
+                : new Lexer(source, diagnostics).scanFileForTokens();
+        }
+        return describeTokens(tokens) + errors.toString(StandardCharsets.UTF_8);
+    }
+
+    // Characters of more than one byte in UTF-8, one of them outside of the BMP
+    private static final String[] WIDE_CHARACTERS = {"\u00e9", "\u00fc", "\u20ac", "\u03a9", "\ud83d\ude00"};
+
+    // Scans random text, as UTF-8 bytes with the Utf8Lexer and decoded with
+    // the Lexer, and checks that the tokens and the errors are the same. Some
+    // of the texts have random bytes in them that aren't valid UTF-8.
+    private static void utf8(int cases, long seed) {
+        int passed = 0;
+        for(int n = 0; n < cases; n++) {
+            Random random = new Random(seed + n);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            boolean malformed = random.nextInt(4) == 0;
+            for(int length = random.nextInt(40); length > 0; length--) {
+                String piece;
+                switch(random.nextInt(malformed ? 4 : 3)) {
+                    case 0: piece = WORDS[random.nextInt(WORDS.length)]; break;
+                    case 1: piece = WIDE_CHARACTERS[random.nextInt(WIDE_CHARACTERS.length)]; break;
+                    case 2: piece = String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length()))); break;
+                    default:
+                        text.write(0x80 + random.nextInt(0x80));
+                        continue;
+                }
+                text.writeBytes(piece.getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] bytes = text.toByteArray();
+            String source = new String(bytes, StandardCharsets.UTF_8);
+
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            Diagnostics diagnostics = new Diagnostics(new PrintStream(errors, true, StandardCharsets.UTF_8));
+            String actual = describeTokens(new Utf8Lexer(ByteBuffer.wrap(bytes), diagnostics).scanFileForTokens())
+                + errors.toString(StandardCharsets.UTF_8);
+            String expected = scan(source, false, false);
+            if(actual.equals(expected)) {
+                passed++;
+            } else {
+                fail("utf8", seed + n, source, expected, actual);
+            }
+        }
+        report("utf8", passed, cases);
+    }
+
+    private static String describeTokens(List<Token> tokens) {
+        StringBuilder description = new StringBuilder();
+        for(Token token : tokens) {
+            description.append(token.type).append(' ').append(token.lexeme).append(' ')
+                .append(token.literal).append(' ').append(token.line).append('\n');
+        }
+        return description.toString();
+    }
+
+    // Optimizes generated programs without running them at compile time, so
+    // that their loops are left to the LoopOptimizer, and checks that every
+    // engine prints the same as the Interpreter does without the Optimizer
+    private static void loops(int cases, long seed) {
+        int passed = 0;
+        for(int n = 0; n < cases; n++) {
+            String source = new ProgramGenerator(new Random(seed + n)).program();
+            CompilerMain.Options plain = new CompilerMain.Options();
+            plain.optimize = false;
+            String expected = run(source, plain, "");
+            String actual = runOnEngines(source, false, "", expected);
+            if(actual.equals(expected)) {
+                passed++;
+            } else {
+                fail("loops", seed + n, source, expected, actual);
+            }
+        }
+        report("loops", passed, cases);
+    }
+
+    // The numbers the programs of the precompute check read, a program that
+    // reads more of them gets a runtime error
+    private static final String INPUT = "5 -2 7 0 3 11 1 4 2 9 6 8 1 1 2 3 5 8 13 21 34 55 89 144 -1 -2 -3 4 5 6";
+
+    // Generates programs that read some of their variables, inside and outside
+    // of loops, and checks that the residual of the PartialEvaluator prints
+    // the same on every engine as the Interpreter does without optimizing
+    private static void precompute(int cases, long seed) {
+        int passed = 0;
+        for(int n = 0; n < cases; n++) {
+            String source = new ProgramGenerator(new Random(seed + n), true).program();
+            CompilerMain.Options plain = new CompilerMain.Options();
+            plain.optimize = false;
+            String expected = run(source, plain, INPUT);
+            String actual = runOnEngines(source, true, INPUT, expected);
+            if(actual.equals(expected)) {
+                passed++;
+            } else {
+                fail("precompute", seed + n, source, expected, actual);
+            }
+        }
+        report("precompute", passed, cases);
+    }
+
+    // What the optimized program prints on the engines, or on the first one
+    // that prints something else than expected
+    private static String runOnEngines(String source, boolean precompute, String input, String expected) {
+        for(int engine = 0; engine < 3; engine++) {
+            CompilerMain.Options options = new CompilerMain.Options();
+            options.precompute = precompute;
+            options.useVirtualMachine = engine == 1;
+            options.useSpecializingInterpreter = engine == 2;
+            String output = run(source, options, input);
+            if(!output.equals(expected)) {
+                return (engine == 0 ? "Interpreter" : engine == 1 ? "VirtualMachine" : "SpecializingInterpreter")
+                    + ":\n" + output;
+            }
+        }
+        return expected;
+    }
+
+    // Compiles and runs a program, and returns what it printed and its errors
+    private static String run(String source, CompilerMain.Options options, String input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Diagnostics diagnostics = new Diagnostics(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        OutputSink out = OutputSink.toStream(bytes, OutputSink.FlushPolicy.ON_EXIT, 0);
+        try {
+            Program program = CompilerMain.compile(source, options, diagnostics);
+            if(program != null) {
+                CompilerMain.execute(program, options, out, InputSource.fromReader(new StringReader(input)), diagnostics);
+            }
+        } catch (RuntimeException e) {
+            out.flush();
+            return bytes.toString(StandardCharsets.UTF_8) + "failed: " + e;
+        }
+        out.flush();
+        return bytes.toString(StandardCharsets.UTF_8) + errors.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String pieces(Random random, int count) {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < count; i++) {
+            source.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return source.toString();
+    }
+
+    private static String fullParse(String source) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Diagnostics diagnostics = new Diagnostics(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        List<Statement> statements = new Parser(new Lexer(source, diagnostics), diagnostics).parseTokens();
+        return describe(statements) + sortedLines(errors);
+    }
+
+    private static String describe(IncrementalParser parser) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        List<Statement> statements = parser.statements();
+        parser.report(new Diagnostics(new PrintStream(errors, true, StandardCharsets.UTF_8)));
+        return describe(statements) + sortedLines(errors);
+    }
+
+    // The statements with the lines of every statement, also in loop bodies
+    private static String describe(List<Statement> statements) {
+        AstPrinter printer = new AstPrinter();
+        StringBuilder description = new StringBuilder();
+        for(Statement statement : statements) {
+            if(statement == null) {
+                description.append("null\n");
+                continue;
+            }
+            lines(statement, description);
+            try {
+                description.append(printer.print(statement)).append('\n');
+            } catch (NullPointerException e) {
+                // A loop body with a syntax error has a null statement, its
+                // lines are compared all the same
+                description.append("(for with errors)\n");
+            }
+        }
+        return description.toString();
+    }
+
+    private static void lines(Statement statement, StringBuilder description) {
+        if(statement == null) {
+            description.append("null ");
+            return;
+        }
+        description.append(statement.line).append(' ');
+        if(statement instanceof Statement.ForStatement) {
+            description.append("[ ");
+            for(Statement bodyStatement : ((Statement.ForStatement)statement).body) {
+                lines(bodyStatement, description);
+            }
+            description.append("] ");
+        }
+    }
+
+    // The stages report their errors in different orders, which doesn't matter
+    private static String sortedLines(ByteArrayOutputStream bytes) {
+        String[] lines = bytes.toString(StandardCharsets.UTF_8).split("\n");
+        Arrays.sort(lines);
+        return String.join("\n", lines);
+    }
+
+    // Generates programs that pass the front end: integer and string
+    // variables, expressions over them, prints and nested for loops with
+    // small bounds, and with reads if asked for. Divisions by zero are left
+    // in, the engines have to agree on the runtime errors as well.
+    static class ProgramGenerator {
+        private static final String[] INTEGERS = {"a", "b", "c", "d"};
+        private static final String[] COUNTERS = {"i", "j", "k"};
+
+        private final Random random;
+        private final boolean reads;
+        // The counters of the loops the statement being generated is in
+        private final List<String> counters = new ArrayList<>();
+
+        ProgramGenerator(Random random) {
+            this(random, false);
+        }
+
+        ProgramGenerator(Random random, boolean reads) {
+            this.random = random;
+            this.reads = reads;
+        }
+
+        String program() {
+            StringBuilder source = new StringBuilder();
+            source.append("var a : int := 1;\nvar b : int := 2;\nvar c : int := 3;\nvar d : int;\n");
+            source.append("var s : string := \"q\";\nvar i : int;\nvar j : int;\nvar k : int;\n");
+            statements(source, 0, 3 + random.nextInt(4));
+            source.append("print a; print b; print c; print d; print s; print i; print j; print k;\n");
+            return source.toString();
+        }
+
+        private void statements(StringBuilder source, int depth, int count) {
+            for(int n = 0; n < count; n++) {
+                if(reads && random.nextInt(8) == 0) {
+                    source.append("read ").append(pick(INTEGERS)).append(";\n");
+                    continue;
+                }
+                switch(random.nextInt(depth >= 2 ? 5 : 6)) {
+                    case 0:
+                    case 1:
+                        source.append(pick(INTEGERS)).append(" := ").append(integer(0)).append(";\n");
+                        break;
+                    case 2:
+                        source.append("print ").append(integer(0)).append(";\n");
+                        break;
+                    case 3:
+                        source.append("s := ").append(string(0)).append(";\n");
+                        break;
+                    case 4:
+                        source.append("print ").append(random.nextBoolean()
+                            ? string(0) + " = " + string(0)
+                            : integer(0) + " < " + integer(0)).append(";\n");
+                        break;
+                    default:
+                        loop(source, depth);
+                }
+            }
+        }
+
+        private void loop(StringBuilder source, int depth) {
+            String counter = null;
+            for(String name : COUNTERS) {
+                if(!counters.contains(name)) {
+                    counter = name;
+                    break;
+                }
+            }
+            if(counter == null) return;
+            source.append("for ").append(counter).append(" in ").append(bound()).append("..").append(bound())
+                .append(" do\n");
+            counters.add(counter);
+            statements(source, depth + 1, 1 + random.nextInt(3));
+            counters.remove(counter);
+            source.append("end for;\n");
+        }
+
+        // The variables can get as large as a long, so the bounds are kept
+        // small to keep the loops short
+        private String bound() {
+            switch(random.nextInt(3)) {
+                case 0:
+                    if(!counters.isEmpty()) return pick(counters.toArray(new String[0]));
+                    return String.valueOf(random.nextInt(4));
+                case 1:
+                    return "(" + random.nextInt(4) + " + " + random.nextInt(4) + ")";
+                default:
+                    return String.valueOf(random.nextInt(8) - 2);
+            }
+        }
+
+        private String integer(int depth) {
+            switch(random.nextInt(depth > 2 ? 3 : 7)) {
+                case 0: return String.valueOf(random.nextInt(7) - 2);
+                case 1: return pick(INTEGERS);
+                case 2:
+                    if(!counters.isEmpty()) return pick(counters.toArray(new String[0]));
+                    return "3";
+                case 3: return integer(depth + 1) + " * " + integer(depth + 1);
+                case 4: return "(" + integer(depth + 1) + " + " + integer(depth + 1) + ")";
+                case 5: return "(" + integer(depth + 1) + " - " + integer(depth + 1) + ")";
+                default:
+                    return "(" + integer(depth + 1) + " / "
+                        + (random.nextBoolean() ? String.valueOf(random.nextInt(5)) : integer(depth + 1)) + ")";
+            }
+        }
+
+        private String string(int depth) {
+            switch(random.nextInt(depth > 1 ? 2 : 4)) {
+                case 0: return "\"x" + random.nextInt(3) + "\"";
+                case 1: return "s";
+                default:
+                    return random.nextBoolean() ? string(depth + 1) + " + \"y\"" : "\"z\" + " + string(depth + 1);
+            }
+        }
+
+        private String pick(String[] names) {
+            return names[random.nextInt(names.length)];
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.List;
+
+// Runs programs on the self-specializing Node tree. The tree can be built once
+// with prepare() and then run many times, so that the nodes stay specialized
+// between the runs.
+public class SpecializingInterpreter {
+    private Environment environment = new Environment();
+    private final OutputSink out;
+    private final InputSource in;
+    private final Diagnostics diagnostics;
+
+    SpecializingInterpreter(OutputSink out, InputSource in, Diagnostics diagnostics) {
+        this.out = out;
+        this.in = in;
+        this.diagnostics = diagnostics;
+    }
+
+    public Node.Program prepare(List<Statement> statements) {
+        return new NodeBuilder(out, in).build(statements);
+    }
+
+    public void interpret(List<Statement> statements) {
+        interpret(prepare(statements));
+    }
+
+    public void interpret(Program program) {
+        environment = new Environment(program.variableCount);
+        interpret(prepare(program.statements));
+    }
+
+    public void interpret(Node.Program program) {
+        try {
+            program.execute(environment);
+        } catch (RuntimeError error) {
+            // The output so far comes before the error message
+            out.flush();
+            diagnostics.runtimeError(error);
+        }
+        out.flush();
+    }
+}
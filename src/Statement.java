@@ -3,10 +3,15 @@ abstract class Statement {
         R visitExpressionStatement(ExpressionStatement statement);
         R visitPrintStatement(PrintStatement statement);
         R visitVariableStatement(VariableStatement statement);
+        R visitForStatement(ForStatement statement);
+        R visitReadStatement(ReadStatement statement);
     }
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    // The line the statement starts on, set by the Parser
+    int line;
+
     static class ExpressionStatement extends Statement {
         final Expression expression;
 
@@ -35,10 +40,17 @@ abstract class Statement {
 
     static class VariableStatement extends Statement {
         final Token name;
+        // The declared type, null if it was left out
+        final Token type;
         final Expression initializer;
+        // Index of the variable in the Environment, filled in by the Resolver
+        int slot = -1;
+        // The type of the variable, either declared or inferred by the TypeChecker
+        ValueType valueType;
 
-        VariableStatement(Token name, Expression initializer) {
+        VariableStatement(Token name, Token type, Expression initializer) {
             this.name = name;
+            this.type = type;
             this.initializer = initializer;
         }
 
@@ -47,4 +59,56 @@ abstract class Statement {
             return visitor.visitVariableStatement(this);
         }
     }
+
+    // for x in start..end do body end for;
+    // The bounds are evaluated once, before the first iteration. The variable
+    // goes through start..end and is end + 1 after the loop, or start if the
+    // body was never run.
+    static class ForStatement extends Statement {
+        final Token variable;
+        final Expression start;
+        final Expression end;
+        // An array so that running the body needs no iterator
+        final Statement[] body;
+        // Index of the variable in the Environment, filled in by the Resolver
+        int slot = -1;
+        // Also filled in by the Resolver. When the body never reads the
+        // variable, it only has to be written once, after the loop.
+        boolean bodyReadsVariable = true;
+
+        ForStatement(Token variable, Expression start, Expression end, Statement[] body) {
+            this.variable = variable;
+            this.start = start;
+            this.end = end;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Statement.Visitor<R> visitor) {
+            return visitor.visitForStatement(this);
+        }
+    }
+
+    // read x;
+    // Reads an integer or a whitespace separated word from the input,
+    // depending on the type of the variable.
+    static class ReadStatement extends Statement {
+        // The 'read' keyword, for the runtime errors
+        final Token keyword;
+        final Token name;
+        // Index of the variable in the Environment, filled in by the Resolver
+        int slot = -1;
+        // The type of the variable, filled in by the TypeChecker
+        ValueType valueType;
+
+        ReadStatement(Token keyword, Token name) {
+            this.keyword = keyword;
+            this.name = name;
+        }
+
+        @Override
+        <R> R accept(Statement.Visitor<R> visitor) {
+            return visitor.visitReadStatement(this);
+        }
+    }
 }
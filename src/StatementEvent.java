@@ -0,0 +1,20 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// A JFR event for every statement the ProfilingInterpreter executes, when it
+// is run with --profile-jfr. The events are only recorded when a flight
+// recording is running, for example with -XX:StartFlightRecording.
+@Name("minipl.Statement")
+@Label("MiniPL Statement")
+@Category("MiniPL")
+@StackTrace(false)
+class StatementEvent extends Event {
+    @Label("Line")
+    int line;
+
+    @Label("Kind")
+    String kind;
+}
@@ -0,0 +1,110 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// The lexemes and string literals of one program, each kept once. The same
+// identifier or literal appears many times in a program, and with the pool
+// every occurrence is the same String object: the Lexer doesn't create a new
+// substring for text it has seen before, and comparing two of the literals
+// is usually only a reference comparison.
+//
+// The lookup works on a range of the source, so a String is only created
+// the first time some text is seen. It is an open addressing table with
+// linear probing, which is kept at most half full.
+//
+// The Utf8Lexer looks up ranges of UTF-8 bytes. ASCII bytes are the chars of
+// the String, so they hash and compare the same way without decoding, other
+// text is decoded first.
+class StringPool {
+    private String[] table = new String[256];
+    private int[] hashes = new int[256];
+    private int count = 0;
+
+    String intern(String source, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for(int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = table.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        String candidate;
+        while((candidate = table[index]) != null) {
+            if(hashes[index] == hash && candidate.length() == length
+                    && candidate.regionMatches(0, source, start, length)) {
+                return candidate;
+            }
+            index = (index + 1) & mask;
+        }
+
+        String value = source.substring(start, end);
+        table[index] = value;
+        hashes[index] = hash;
+        if(++count * 2 > table.length) grow();
+        return value;
+    }
+
+    String intern(ByteBuffer source, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for(int i = start; i < end; i++) {
+            byte b = source.get(i);
+            if(b < 0) return intern(decode(source, start, end));
+            hash = 31 * hash + b;
+        }
+
+        int mask = table.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        String candidate;
+        while((candidate = table[index]) != null) {
+            if(hashes[index] == hash && candidate.length() == length && matches(candidate, source, start)) {
+                return candidate;
+            }
+            index = (index + 1) & mask;
+        }
+
+        String value = decode(source, start, end);
+        table[index] = value;
+        hashes[index] = hash;
+        if(++count * 2 > table.length) grow();
+        return value;
+    }
+
+    String intern(String value) {
+        return intern(value, 0, value.length());
+    }
+
+    static String decode(ByteBuffer source, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(String candidate, ByteBuffer source, int start) {
+        for(int i = 0; i < candidate.length(); i++) {
+            if(candidate.charAt(i) != source.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    int size() {
+        return count;
+    }
+
+    private void grow() {
+        String[] oldTable = table;
+        int[] oldHashes = hashes;
+        table = new String[oldTable.length * 2];
+        hashes = new int[oldTable.length * 2];
+        int mask = table.length - 1;
+        for(int i = 0; i < oldTable.length; i++) {
+            if(oldTable[i] == null) continue;
+            int index = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+            while(table[index] != null) {
+                index = (index + 1) & mask;
+            }
+            table[index] = oldTable[i];
+            hashes[index] = oldHashes[i];
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// A table driven version of the Lexer. It produces exactly the same tokens and
+// errors, but instead of a big switch and helper predicates for every
+// character it looks the character up in a precomputed class table, and
+// keywords are recognized with a perfect hash that compares the candidate
+// keyword straight against the source characters. Scanning an identifier or a
+// keyword therefore allocates nothing, a String is only made when a Token
+// object is created, and for keywords and operators the lexeme is a shared
+// constant.
+public class TableLexer implements TokenSource {
+    // Character classes, only ASCII has entries, everything else is OTHER
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte NEWLINE = 2;
+    private static final byte LOWER_CASE = 3;   // can start an identifier
+    private static final byte UPPER_CASE = 4;   // can only continue one
+    private static final byte DIGIT = 5;
+    private static final byte QUOTE = 6;
+    private static final byte SINGLE = 7;       // a complete one character token
+    private static final byte DOT = 8;
+    private static final byte COLON = 9;
+
+    private static final byte[] CHARACTER_CLASSES = new byte[128];
+    private static final TokenType[] SINGLE_TOKENS = new TokenType[128];
+    private static final String[] SINGLE_LEXEMES = new String[128];
+
+    private static final String[] KEYWORDS = {
+        "print", "var", "for", "end", "in", "do", "read", "int", "string", "bool", "assert"
+    };
+    private static final TokenType[] KEYWORD_TYPES = {
+        TokenType.PRINT, TokenType.VAR, TokenType.FOR, TokenType.END, TokenType.IN, TokenType.DO,
+        TokenType.READ, TokenType.INT, TokenType.STRING, TokenType.BOOL, TokenType.ASSERT
+    };
+    // Perfect hash table of the keywords, see keywordHash()
+    private static final int[] KEYWORD_TABLE;
+    private static final int KEYWORD_MASK;
+
+    static {
+        CHARACTER_CLASSES[' '] = WHITESPACE;
+        CHARACTER_CLASSES['\r'] = WHITESPACE;
+        CHARACTER_CLASSES['\t'] = WHITESPACE;
+        CHARACTER_CLASSES['\n'] = NEWLINE;
+        for(char c = 'a'; c <= 'z'; c++) CHARACTER_CLASSES[c] = LOWER_CASE;
+        for(char c = 'A'; c <= 'Z'; c++) CHARACTER_CLASSES[c] = UPPER_CASE;
+        for(char c = '0'; c <= '9'; c++) CHARACTER_CLASSES[c] = DIGIT;
+        CHARACTER_CLASSES['"'] = QUOTE;
+        CHARACTER_CLASSES['.'] = DOT;
+        CHARACTER_CLASSES[':'] = COLON;
+
+        single('(', TokenType.LEFT_PAREN);
+        single(')', TokenType.RIGHT_PAREN);
+        single('+', TokenType.PLUS);
+        single('-', TokenType.MINUS);
+        single('*', TokenType.STAR);
+        single('/', TokenType.SLASH);
+        single(';', TokenType.SEMICOLON);
+        single('!', TokenType.NOT);
+        single('>', TokenType.GREATER);
+        single('<', TokenType.LESS);
+        single('=', TokenType.EQUAL);
+        single('&', TokenType.AND);
+        single('|', TokenType.OR);
+
+        // Find the smallest table size where no two keywords hash to the same
+        // slot. This runs once when the class is loaded.
+        int size = 16;
+        int[] table;
+        search:
+        while(true) {
+            table = new int[size];
+            java.util.Arrays.fill(table, -1);
+            for(int i = 0; i < KEYWORDS.length; i++) {
+                String keyword = KEYWORDS[i];
+                int slot = keywordHash(keyword.charAt(0), keyword.charAt(keyword.length() - 1), keyword.length()) & (size - 1);
+                if(table[slot] != -1) {
+                    size *= 2;
+                    continue search;
+                }
+                table[slot] = i;
+            }
+            break;
+        }
+        KEYWORD_TABLE = table;
+        KEYWORD_MASK = size - 1;
+    }
+
+    private static void single(char character, TokenType type) {
+        CHARACTER_CLASSES[character] = SINGLE;
+        SINGLE_TOKENS[character] = type;
+        SINGLE_LEXEMES[character] = String.valueOf(character);
+    }
+
+    // The first and last character and the length are enough to tell the
+    // MiniPL keywords apart
+    private static int keywordHash(char first, char last, int length) {
+        return first * 31 * 31 + last * 31 + length;
+    }
+
+    private final String source;
+    private final Diagnostics diagnostics;
+    private final int length;
+    // The identifiers and string literals, each text only once
+    private final StringPool strings = new StringPool();
+    private int position = 0;
+    private int line = 1;
+
+    // Set by scan() for the token it found
+    private int tokenStart;
+    private int tokenEnd;
+    private int keywordIndex;
+    private long numberValue;
+
+    public TableLexer(String source, Diagnostics diagnostics) {
+        this.source = source;
+        this.diagnostics = diagnostics;
+        this.length = source.length();
+    }
+
+    public List<Token> scanFileForTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while(token.type != TokenType.EOF);
+
+        return tokens;
+    }
+
+    public TokenBuffer scanIntoBuffer() {
+        TokenBuffer buffer = new TokenBuffer(source);
+        TokenType type;
+        while((type = scan()) != null) {
+            buffer.add(type, tokenStart, tokenEnd, line);
+        }
+        buffer.add(TokenType.EOF, length, length, line);
+        return buffer;
+    }
+
+    @Override
+    public Token nextToken() {
+        TokenType type = scan();
+        if(type == null) return new Token(TokenType.EOF, "", null, line);
+
+        switch(type) {
+            case IDENTIFIER:
+                return new Token(type, strings.intern(source, tokenStart, tokenEnd), null, line);
+            case NUMBER:
+                return new Token(type, strings.intern(source, tokenStart, tokenEnd), numberValue, line);
+            case STRING_LIT:
+                return new Token(type, strings.intern(source, tokenStart, tokenEnd),
+                    strings.intern(source, tokenStart + 1, tokenEnd - 1), line);
+            case SPREAD:
+                return new Token(type, "..", null, line);
+            case ASSIGN:
+                return new Token(type, ":=", null, line);
+            case COLON:
+                return new Token(type, ":", null, line);
+            default:
+                if(keywordIndex >= 0) return new Token(type, KEYWORDS[keywordIndex], null, line);
+                return new Token(type, SINGLE_LEXEMES[source.charAt(tokenStart)], null, line);
+        }
+    }
+
+    // Finds the next token and returns its type, or null at the end of the
+    // input. Nothing is allocated unless an error is reported.
+    private TokenType scan() {
+        while(position < length) {
+            int start = position;
+            char character = source.charAt(position++);
+            keywordIndex = -1;
+
+            switch(character < 128 ? CHARACTER_CLASSES[character] : OTHER) {
+                case WHITESPACE:
+                    continue;
+                case NEWLINE:
+                    line++;
+                    continue;
+                case SINGLE:
+                    return found(start, SINGLE_TOKENS[character]);
+                case LOWER_CASE:
+                    while(position < length && isIdentifierPart(source.charAt(position))) {
+                        position++;
+                    }
+                    return found(start, keyword(start, position));
+                case DIGIT:
+                    if(scanNumber(start)) return found(start, TokenType.NUMBER);
+                    continue;
+                case QUOTE:
+                    if(scanString()) return found(start, TokenType.STRING_LIT);
+                    continue;
+                case DOT:
+                    if(position < length && source.charAt(position) == '.') {
+                        position++;
+                        return found(start, TokenType.SPREAD);
+                    }
+                    diagnostics.error(line, "Unexpected token: " + character);
+                    continue;
+                case COLON:
+                    if(position < length && source.charAt(position) == '=') {
+                        position++;
+                        return found(start, TokenType.ASSIGN);
+                    }
+                    return found(start, TokenType.COLON);
+                default:
+                    diagnostics.error(line, "Unexpected token: " + character);
+            }
+        }
+        return null;
+    }
+
+    private TokenType found(int start, TokenType type) {
+        tokenStart = start;
+        tokenEnd = position;
+        return type;
+    }
+
+    private static boolean isIdentifierPart(char character) {
+        if(character >= 128) return false;
+        byte characterClass = CHARACTER_CLASSES[character];
+        return characterClass == LOWER_CASE || characterClass == UPPER_CASE;
+    }
+
+    private TokenType keyword(int start, int end) {
+        int length = end - start;
+        int slot = keywordHash(source.charAt(start), source.charAt(end - 1), length) & KEYWORD_MASK;
+        int index = KEYWORD_TABLE[slot];
+        if(index < 0) return TokenType.IDENTIFIER;
+
+        String keyword = KEYWORDS[index];
+        if(keyword.length() != length || !source.regionMatches(start, keyword, 0, length)) {
+            return TokenType.IDENTIFIER;
+        }
+        keywordIndex = index;
+        return KEYWORD_TYPES[index];
+    }
+
+    // MiniPL integers are 64-bit, literals that don't fit are an error
+    private boolean scanNumber(int start) {
+        while(position < length && isDigit(source.charAt(position))) {
+            position++;
+        }
+
+        long value = 0;
+        for(int i = start; i < position; i++) {
+            int digit = source.charAt(i) - '0';
+            if(value > (Long.MAX_VALUE - digit) / 10) {
+                diagnostics.error(line, "Integer literal is too large: " + source.substring(start, position));
+                return false;
+            }
+            value = value * 10 + digit;
+        }
+        numberValue = value;
+        return true;
+    }
+
+    private static boolean isDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+
+    // Like the Lexer, a '\0' character ends the search for the closing quote
+    private boolean scanString() {
+        while(position < length) {
+            char character = source.charAt(position);
+            if(character == '\0') break;
+            position++;
+            if(character == '"') return true;
+            if(character == '\n') line++;
+        }
+        diagnostics.error(line, "Unterminated string");
+        return false;
+    }
+}
@@ -2,7 +2,9 @@ public class Token {
     final TokenType type;
     final String lexeme;
     final Object literal;
-    final int line;
+    // Not final, the IncrementalParser moves the tokens it keeps when an edit
+    // above them adds or removes lines
+    int line;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
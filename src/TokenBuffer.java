@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+// A compact alternative to a List<Token>. The tokens are kept as parallel
+// primitive arrays: the type, where the token starts and ends in the source,
+// and its line. No Token, lexeme or literal objects are created while
+// scanning, they are only made when someone actually asks for them, for
+// example when the Parser needs the name of a variable for the tree.
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    // The lexemes and literals made for the Parser, each text only once
+    private final StringPool strings = new StringPool();
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] ends = new int[256];
+    private int[] lines = new int[256];
+    private int count = 0;
+
+    TokenBuffer(String source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int end, int line) {
+        if(count == types.length) {
+            int newLength = count * 2;
+            types = Arrays.copyOf(types, newLength);
+            starts = Arrays.copyOf(starts, newLength);
+            ends = Arrays.copyOf(ends, newLength);
+            lines = Arrays.copyOf(lines, newLength);
+        }
+        types[count] = (byte)type.ordinal();
+        starts[count] = start;
+        ends[count] = end;
+        lines[count] = line;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    String lexeme(int index) {
+        return strings.intern(source, starts[index], ends[index]);
+    }
+
+    // The Lexer has already checked the literals, so they can be parsed
+    // again here without any error handling
+    Object literal(int index) {
+        switch(type(index)) {
+            case NUMBER:
+                long value = 0;
+                for(int i = starts[index]; i < ends[index]; i++) {
+                    value = value * 10 + (source.charAt(i) - '0');
+                }
+                return value;
+            case STRING_LIT:
+                return strings.intern(source, starts[index] + 1, ends[index] - 1);
+            default:
+                return null;
+        }
+    }
+
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), lines[index]);
+    }
+}
@@ -0,0 +1,6 @@
+// Anything the parser can pull tokens from one at a time, both the Lexer and
+// the TableLexer are one
+interface TokenSource {
+    // Returns the next token, or EOF at the end of the input
+    Token nextToken();
+}
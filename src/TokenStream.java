@@ -0,0 +1,132 @@
+import java.util.List;
+
+// The Parser reads its tokens through a TokenStream. It only ever needs the
+// current token and the one before it, so a stream doesn't have to keep the
+// whole token list in memory.
+abstract class TokenStream {
+    // The token the parser is looking at, EOF at the end of the input
+    abstract Token peek();
+
+    // The token that was consumed last
+    abstract Token previous();
+
+    // Moves to the next token, never past EOF
+    abstract void advance();
+
+    // The types alone, for streams that can tell them without making a Token
+    TokenType peekType() {
+        return peek().type;
+    }
+
+    TokenType previousType() {
+        return previous().type;
+    }
+
+    int peekLine() {
+        return peek().line;
+    }
+
+    // Tokens from a list that has already been scanned, for tools that want
+    // to look at the tokens themselves too
+    static class FromList extends TokenStream {
+        private final List<Token> tokens;
+        private int current = 0;
+
+        FromList(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        Token peek() {
+            return tokens.get(current);
+        }
+
+        @Override
+        Token previous() {
+            return tokens.get(current - 1);
+        }
+
+        @Override
+        void advance() {
+            if(current < tokens.size() - 1) current++;
+        }
+
+        // The index of the token the parser is looking at
+        int position() {
+            return current;
+        }
+    }
+
+    // Tokens scanned on demand, one at a time. Only the current and the
+    // previous token are kept, so the memory used for tokens stays the same
+    // no matter how long the input is.
+    static class FromLexer extends TokenStream {
+        private final TokenSource lexer;
+        private Token current;
+        private Token previous;
+
+        FromLexer(TokenSource lexer) {
+            this.lexer = lexer;
+            this.current = lexer.nextToken();
+        }
+
+        @Override
+        Token peek() {
+            return current;
+        }
+
+        @Override
+        Token previous() {
+            return previous;
+        }
+
+        @Override
+        void advance() {
+            if(current.type == TokenType.EOF) return;
+            previous = current;
+            current = lexer.nextToken();
+        }
+    }
+
+    // Tokens from a TokenBuffer. Token objects are only made for the tokens
+    // the parser asks for with peek() or previous(), everything else is done
+    // with the types alone.
+    static class FromBuffer extends TokenStream {
+        private final TokenBuffer buffer;
+        private int current = 0;
+
+        FromBuffer(TokenBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        Token peek() {
+            return buffer.token(current);
+        }
+
+        @Override
+        Token previous() {
+            return buffer.token(current - 1);
+        }
+
+        @Override
+        void advance() {
+            if(current < buffer.size() - 1) current++;
+        }
+
+        @Override
+        TokenType peekType() {
+            return buffer.type(current);
+        }
+
+        @Override
+        TokenType previousType() {
+            return buffer.type(current - 1);
+        }
+
+        @Override
+        int peekLine() {
+            return buffer.line(current);
+        }
+    }
+}
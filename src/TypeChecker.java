@@ -0,0 +1,195 @@
+import java.util.List;
+
+// A static pass that is run after the Resolver. It works out the type of every
+// expression and stores it in the node, and reports type errors before the
+// program is executed. Because of this the Interpreter doesn't have to check
+// the types of the operands at run time anymore, it can use the stored types
+// to pick the right way to evaluate each expression.
+public class TypeChecker implements Expression.Visitor<ValueType>, Statement.Visitor<Void> {
+    // The types of the variables, indexed by the slots given by the Resolver
+    private final ValueType[] variableTypes;
+    private final Diagnostics diagnostics;
+
+    TypeChecker(int variableCount, Diagnostics diagnostics) {
+        this.variableTypes = new ValueType[variableCount];
+        this.diagnostics = diagnostics;
+    }
+
+    public void check(List<Statement> statements) {
+        for(Statement statement : statements) {
+            check(statement);
+        }
+    }
+
+    private void check(Statement statement) {
+        statement.accept(this);
+    }
+
+    private ValueType check(Expression expression) {
+        ValueType type = expression.accept(this);
+        expression.type = type;
+        return type;
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        check(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        check(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStatement(Statement.VariableStatement statement) {
+        ValueType initializerType = null;
+        if(statement.initializer != null) {
+            initializerType = check(statement.initializer);
+        }
+
+        ValueType type;
+        if(statement.type != null) {
+            type = ValueType.fromToken(statement.type);
+            if(initializerType != null && initializerType != type) {
+                diagnostics.error(statement.name, "Cannot initialize variable of type " + type
+                    + " with a value of type " + initializerType + ".");
+            }
+        } else if(initializerType != null) {
+            type = initializerType;
+        } else {
+            diagnostics.error(statement.name, "Variable '" + statement.name.lexeme
+                + "' needs a type or an initial value.");
+            type = ValueType.INT;
+        }
+
+        // Declaring a name again reuses its slot, so the type has to stay the same
+        ValueType previousType = variableTypes[statement.slot];
+        if(previousType != null && previousType != type) {
+            diagnostics.error(statement.name, "Variable '" + statement.name.lexeme
+                + "' is already declared with type " + previousType + ".");
+        }
+
+        variableTypes[statement.slot] = type;
+        statement.valueType = type;
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(Statement.ForStatement statement) {
+        if(variableTypes[statement.slot] != ValueType.INT) {
+            diagnostics.error(statement.variable, "Loop variable '" + statement.variable.lexeme
+                + "' must be an int.");
+        }
+        ValueType start = check(statement.start);
+        ValueType end = check(statement.end);
+        if(start != ValueType.INT || end != ValueType.INT) {
+            diagnostics.error(statement.variable, "Range bounds must be numbers.");
+        }
+
+        for(Statement bodyStatement : statement.body) {
+            check(bodyStatement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReadStatement(Statement.ReadStatement statement) {
+        ValueType type = variableTypes[statement.slot];
+        if(type == ValueType.BOOL) {
+            diagnostics.error(statement.name, "Cannot read a value of type bool into '"
+                + statement.name.lexeme + "'.");
+        }
+        statement.valueType = type;
+        return null;
+    }
+
+    @Override
+    public ValueType visitUnaryExpression(Expression.Unary expression) {
+        ValueType right = check(expression.expression);
+
+        switch(expression.operator.type) {
+            case NOT:
+                if(right != ValueType.BOOL) {
+                    diagnostics.error(expression.operator, "Operand must be a boolean.");
+                }
+                return ValueType.BOOL;
+            case MINUS:
+                if(right != ValueType.INT) {
+                    diagnostics.error(expression.operator, "Operand must be a number.");
+                }
+                return ValueType.INT;
+        }
+
+        diagnostics.error(expression.operator, "Unknown unary operator.");
+        return right;
+    }
+
+    @Override
+    public ValueType visitBinaryExpression(Expression.Binary expression) {
+        ValueType left = check(expression.leftExpression);
+        ValueType right = check(expression.rightExpression);
+
+        switch(expression.operator.type) {
+            case GREATER:
+            case LESS:
+                checkNumberOperands(expression.operator, left, right);
+                return ValueType.BOOL;
+            case EQUAL:
+                if(left != right) {
+                    diagnostics.error(expression.operator, "Operands must be of the same type.");
+                }
+                return ValueType.BOOL;
+            case PLUS:
+                // '+' also concatenates two strings
+                if(left == ValueType.STRING && right == ValueType.STRING) return ValueType.STRING;
+                if(left != ValueType.INT || right != ValueType.INT) {
+                    diagnostics.error(expression.operator, "Operands must be two numbers or two strings.");
+                }
+                return ValueType.INT;
+            case MINUS:
+            case SLASH:
+            case STAR:
+                checkNumberOperands(expression.operator, left, right);
+                return ValueType.INT;
+        }
+
+        diagnostics.error(expression.operator, "Unknown binary operator.");
+        return left;
+    }
+
+    private void checkNumberOperands(Token operator, ValueType left, ValueType right) {
+        if(left == ValueType.INT && right == ValueType.INT) return;
+        diagnostics.error(operator, "Operands must be numbers.");
+    }
+
+    @Override
+    public ValueType visitLiteralExpression(Expression.Literal expression) {
+        if(expression.value instanceof Long) return ValueType.INT;
+        if(expression.value instanceof Boolean) return ValueType.BOOL;
+        return ValueType.STRING;
+    }
+
+    @Override
+    public ValueType visitGroupingExpression(Expression.Grouping expression) {
+        return check(expression.expression);
+    }
+
+    @Override
+    public ValueType visitVariableExpression(Expression.Variable expression) {
+        return variableTypes[expression.slot];
+    }
+
+    @Override
+    public ValueType visitAssignExpression(Expression.Assign expression) {
+        ValueType value = check(expression.value);
+        ValueType variable = variableTypes[expression.slot];
+        if(value != variable) {
+            diagnostics.error(expression.name, "Cannot assign a value of type " + value
+                + " to variable '" + expression.name.lexeme + "' of type " + variable + ".");
+        }
+        return variable;
+    }
+}
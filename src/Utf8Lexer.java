@@ -0,0 +1,197 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// A Lexer that scans the UTF-8 bytes of a source file, usually a file mapped
+// into memory, so that the whole text is never decoded into a String or copied
+// onto the heap. It produces the same tokens and errors as the Lexer does for
+// the decoded text.
+//
+// Everything in MiniPL outside of string literals is ASCII, so the bytes are
+// compared as they are, and only the lexemes and literals of the tokens are
+// decoded, by the StringPool. Outside of a string, a byte that isn't ASCII
+// starts a character that is always an error, its other bytes are skipped with
+// it. The Lexer reports such a character once for every UTF-16 char of it, so
+// twice for one outside of the BMP, and so does this one.
+//
+// Positions are int indexes, a ByteBuffer can't be larger than 2 GB.
+public class Utf8Lexer implements TokenSource {
+    private final ByteBuffer source;
+    private final int length;
+    private final Diagnostics diagnostics;
+    private Token scannedToken;
+    private final StringPool strings = new StringPool();
+
+    private int startPosition;
+    private int currentPosition;
+    private int lineNumber = 1;
+
+    public Utf8Lexer(ByteBuffer source, Diagnostics diagnostics) {
+        this.source = source;
+        this.length = source.limit();
+        this.diagnostics = diagnostics;
+        this.currentPosition = source.position();
+    }
+
+    public List<Token> scanFileForTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while(token.type != TokenType.EOF);
+
+        return tokens;
+    }
+
+    @Override
+    public Token nextToken() {
+        while(!isAtEnd()) {
+            this.startPosition = this.currentPosition;
+            scanToken();
+            if(this.scannedToken != null) {
+                Token token = this.scannedToken;
+                this.scannedToken = null;
+                return token;
+            }
+        }
+
+        return new Token(TokenType.EOF, "", null, this.lineNumber);
+    }
+
+    private boolean isAtEnd() {
+        return this.currentPosition >= this.length;
+    }
+
+    private void scanToken() {
+        byte currentByte = getNextByte();
+        switch (currentByte) {
+            case ' ':
+            case '\r':
+            case '\t': break;
+            case '\n': this.lineNumber++; break;
+            case '(': addToken(TokenType.LEFT_PAREN); break;
+            case ')': addToken(TokenType.RIGHT_PAREN); break;
+            case '+': addToken(TokenType.PLUS); break;
+            case '-': addToken(TokenType.MINUS); break;
+            case '*': addToken(TokenType.STAR); break;
+            case '/': addToken(TokenType.SLASH); break;
+            case ';': addToken(TokenType.SEMICOLON); break;
+            case '!': addToken(TokenType.NOT); break;
+            case '>': addToken(TokenType.GREATER); break;
+            case '<': addToken(TokenType.LESS); break;
+            case '=': addToken(TokenType.EQUAL); break;
+            case '&': addToken(TokenType.AND); break;
+            case '|': addToken(TokenType.OR); break;
+            case '.':
+                if(isNextByte('.')) {
+                    addToken(TokenType.SPREAD);
+                } else {
+                    diagnostics.error(lineNumber, "Unexpected token: .");
+                }
+                break;
+            case ':':
+                addToken(isNextByte('=') ? TokenType.ASSIGN : TokenType.COLON);
+                break;
+            case '"':
+                handleStringLiteral();
+                break;
+            default:
+                if(currentByte >= 'a' && currentByte <= 'z') {
+                    handleReservedKeyword();
+                    return;
+                }
+                if(isNumber(currentByte)) {
+                    handleNumber();
+                    return;
+                }
+                if(currentByte < 0) skipContinuationBytes(currentByte);
+                String character = StringPool.decode(this.source, this.startPosition, this.currentPosition);
+                for(int i = 0; i < character.length(); i++) {
+                    diagnostics.error(lineNumber, "Unexpected token: " + character.charAt(i));
+                }
+        }
+    }
+
+    // The lead byte of a character tells how many bytes follow it
+    private void skipContinuationBytes(byte lead) {
+        int following = (lead & 0xE0) == 0xC0 ? 1 : (lead & 0xF0) == 0xE0 ? 2 : (lead & 0xF8) == 0xF0 ? 3 : 0;
+        while(following-- > 0 && !isAtEnd() && (peekNextByte() & 0xC0) == 0x80) {
+            this.currentPosition++;
+        }
+    }
+
+    private void handleNumber() {
+        while(isNumber(peekNextByte()) && !isAtEnd()) {
+            this.currentPosition++;
+        }
+        long value = 0;
+        for(int i = this.startPosition; i < this.currentPosition; i++) {
+            int digit = this.source.get(i) - '0';
+            if(value > (Long.MAX_VALUE - digit) / 10) {
+                diagnostics.error(lineNumber, "Integer literal is too large: "
+                    + StringPool.decode(this.source, this.startPosition, this.currentPosition));
+                return;
+            }
+            value = value * 10 + digit;
+        }
+        addToken(TokenType.NUMBER, value);
+    }
+
+    private void handleReservedKeyword() {
+        while(isAlphabet(peekNextByte()) && !isAtEnd()) {
+            this.currentPosition++;
+        }
+        String word = this.strings.intern(this.source, this.startPosition, this.currentPosition);
+        TokenType keyword = Lexer.keywords.get(word);
+        TokenType type = keyword != null ? keyword : TokenType.IDENTIFIER;
+        this.scannedToken = new Token(type, word, null, this.lineNumber);
+    }
+
+    // The bytes between the quotes are decoded as they are, the bytes of a
+    // character other than ASCII are never a '"' or a '\n'
+    private void handleStringLiteral() {
+        while(!isAtEnd() && peekNextByte() != '\0') {
+            byte next = getNextByte();
+            if(next == '"') {
+                String value = this.strings.intern(this.source, this.startPosition + 1, this.currentPosition - 1);
+                addToken(TokenType.STRING_LIT, value);
+                return;
+            }
+            if(next == '\n') this.lineNumber++;
+        }
+        diagnostics.error(this.lineNumber, "Unterminated string");
+    }
+
+    private static boolean isNumber(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isAlphabet(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private byte getNextByte() {
+        return this.source.get(this.currentPosition++);
+    }
+
+    private byte peekNextByte() {
+        if(isAtEnd()) return '\0';
+        return this.source.get(this.currentPosition);
+    }
+
+    private boolean isNextByte(char character) {
+        if(isAtEnd() || this.source.get(this.currentPosition) != character) return false;
+        this.currentPosition++;
+        return true;
+    }
+
+    private void addToken(TokenType tokenType) {
+        addToken(tokenType, null);
+    }
+
+    private void addToken(TokenType tokenType, Object literal) {
+        String text = this.strings.intern(this.source, this.startPosition, this.currentPosition);
+        this.scannedToken = new Token(tokenType, text, literal, this.lineNumber);
+    }
+}
@@ -0,0 +1,28 @@
+// The static types of MiniPL values. Every expression gets one of these from
+// the TypeChecker before the program is executed.
+enum ValueType {
+    INT, STRING, BOOL;
+
+    static ValueType fromToken(Token token) {
+        switch(token.type) {
+            case INT: return INT;
+            case STRING: return STRING;
+            case BOOL: return BOOL;
+        }
+        throw new IllegalArgumentException("Not a type: " + token.lexeme);
+    }
+
+    // The value a variable gets when it is declared without an initializer
+    Object defaultValue() {
+        switch(this) {
+            case INT: return 0L;
+            case STRING: return "";
+            default: return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,200 @@
+// A stack based virtual machine that runs the bytecode produced by the
+// BytecodeCompiler. The whole program is executed by a single dispatch loop
+// over a flat int[], so there are no virtual accept() calls per node like in
+// the tree-walking Interpreter. The behaviour (values, printing and runtime
+// errors) is kept identical to the Interpreter.
+public class VirtualMachine {
+    private final OutputSink out;
+    private final InputSource in;
+    private final Diagnostics diagnostics;
+
+    VirtualMachine(OutputSink out, InputSource in, Diagnostics diagnostics) {
+        this.out = out;
+        this.in = in;
+        this.diagnostics = diagnostics;
+    }
+
+    public void interpret(Chunk chunk) {
+        try {
+            run(chunk);
+        } catch (RuntimeError error) {
+            // The output so far comes before the error message
+            out.flush();
+            diagnostics.runtimeError(error);
+        }
+        out.flush();
+    }
+
+    // Integers are kept unboxed: the value stack and the variables have a
+    // parallel long[] and the Object slot is tagged with this marker when the
+    // value lives in the long[]. This way arithmetic never allocates.
+    private static final Object INTEGER = new Object();
+
+    private void run(Chunk chunk) {
+        final int[] code = chunk.code();
+        final Token[] tokens = chunk.tokens();
+
+        final Object[] constants = chunk.constants();
+        final long[] integerConstants = new long[constants.length];
+        for(int i = 0; i < constants.length; i++) {
+            if(constants[i] instanceof Long) {
+                integerConstants[i] = (long)constants[i];
+                constants[i] = INTEGER;
+            }
+        }
+
+        // The Resolver has checked that every variable is declared before it
+        // is used, so the slots need no "undefined" marker.
+        final Object[] variables = new Object[chunk.variableCount];
+        final long[] integerVariables = new long[chunk.variableCount];
+
+        final Object[] stack = new Object[chunk.maxStackSize];
+        final long[] integers = new long[chunk.maxStackSize];
+        int top = 0;
+        int pc = 0;
+
+        while(true) {
+            int instruction = pc;
+            switch(code[pc++]) {
+                case OpCode.CONSTANT: {
+                    int index = code[pc++];
+                    stack[top] = constants[index];
+                    integers[top] = integerConstants[index];
+                    top++;
+                    break;
+                }
+                case OpCode.NIL:
+                    stack[top++] = null;
+                    break;
+                case OpCode.POP:
+                    top--;
+                    break;
+                case OpCode.GET_VARIABLE: {
+                    int slot = code[pc++];
+                    stack[top] = variables[slot];
+                    integers[top] = integerVariables[slot];
+                    top++;
+                    break;
+                }
+                case OpCode.SET_VARIABLE: {
+                    int slot = code[pc++];
+                    variables[slot] = stack[top - 1];
+                    integerVariables[slot] = integers[top - 1];
+                    break;
+                }
+                case OpCode.DEFINE_VARIABLE: {
+                    int slot = code[pc++];
+                    top--;
+                    variables[slot] = stack[top];
+                    integerVariables[slot] = integers[top];
+                    break;
+                }
+                case OpCode.NEGATE:
+                    if(stack[top - 1] != INTEGER) throw new RuntimeError(tokens[instruction], "Operand must be a number.");
+                    integers[top - 1] = -integers[top - 1];
+                    break;
+                case OpCode.NOT:
+                    // The TypeChecker only allows '!' on booleans
+                    stack[top - 1] = !(boolean)stack[top - 1];
+                    break;
+                case OpCode.ADD:
+                    top--;
+                    checkNumberOperands(tokens[instruction], stack[top - 1], stack[top]);
+                    integers[top - 1] = integers[top - 1] + integers[top];
+                    break;
+                case OpCode.CONCAT:
+                    // Only emitted for a '+' that the TypeChecker gave two strings
+                    top--;
+                    stack[top - 1] = Rope.concat((CharSequence)stack[top - 1], (CharSequence)stack[top]);
+                    break;
+                case OpCode.SUBTRACT:
+                    top--;
+                    checkNumberOperands(tokens[instruction], stack[top - 1], stack[top]);
+                    integers[top - 1] = integers[top - 1] - integers[top];
+                    break;
+                case OpCode.MULTIPLY:
+                    top--;
+                    checkNumberOperands(tokens[instruction], stack[top - 1], stack[top]);
+                    integers[top - 1] = integers[top - 1] * integers[top];
+                    break;
+                case OpCode.DIVIDE:
+                    top--;
+                    checkNumberOperands(tokens[instruction], stack[top - 1], stack[top]);
+                    if(integers[top] == 0) throw new RuntimeError(tokens[instruction], "Division by zero.");
+                    integers[top - 1] = integers[top - 1] / integers[top];
+                    break;
+                case OpCode.GREATER:
+                    top--;
+                    checkNumberOperands(tokens[instruction], stack[top - 1], stack[top]);
+                    stack[top - 1] = integers[top - 1] > integers[top];
+                    break;
+                case OpCode.LESS:
+                    top--;
+                    checkNumberOperands(tokens[instruction], stack[top - 1], stack[top]);
+                    stack[top - 1] = integers[top - 1] < integers[top];
+                    break;
+                case OpCode.EQUAL: {
+                    top--;
+                    Object left = stack[top - 1];
+                    Object right = stack[top];
+                    if(left == INTEGER || right == INTEGER) {
+                        stack[top - 1] = left == right && integers[top - 1] == integers[top];
+                    } else {
+                        stack[top - 1] = Interpreter.isEqual(left, right);
+                    }
+                    break;
+                }
+                case OpCode.PRINT:
+                    top--;
+                    if(stack[top] == INTEGER) {
+                        out.println(integers[top]);
+                    } else {
+                        out.println(Interpreter.stringify(stack[top]));
+                    }
+                    break;
+                case OpCode.FOR_TEST: {
+                    int slot = code[pc++];
+                    int exit = code[pc++];
+                    if(integers[top - 2] > integers[top - 1]) {
+                        pc = exit;
+                    } else if(slot >= 0) {
+                        variables[slot] = INTEGER;
+                        integerVariables[slot] = integers[top - 2];
+                    }
+                    break;
+                }
+                case OpCode.FOR_NEXT: {
+                    int test = code[pc++];
+                    // The end was the largest long, leave instead of wrapping around
+                    if(++integers[top - 2] != Long.MIN_VALUE) pc = test;
+                    break;
+                }
+                case OpCode.FOR_EXIT: {
+                    int slot = code[pc++];
+                    variables[slot] = INTEGER;
+                    integerVariables[slot] = integers[top - 2];
+                    top -= 2;
+                    break;
+                }
+                case OpCode.READ_INTEGER: {
+                    int slot = code[pc++];
+                    variables[slot] = INTEGER;
+                    integerVariables[slot] = in.readInteger(tokens[instruction]);
+                    break;
+                }
+                case OpCode.READ_STRING:
+                    variables[code[pc++]] = in.readWord(tokens[instruction]);
+                    break;
+                case OpCode.HALT:
+                    return;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[instruction] + " at " + instruction);
+            }
+        }
+    }
+
+    private void checkNumberOperands(Token operator, Object left, Object right) {
+        if(left == INTEGER && right == INTEGER) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}